@@ -0,0 +1,79 @@
+package net.nehar.lox;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.nehar.lox.vm.Compiler;
+import net.nehar.lox.vm.Function;
+import net.nehar.lox.vm.VM;
+
+/**
+ * Execution throughput of canonical workloads, on each engine.
+ * Scanning, parsing and resolution happen once in setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InterpreterBenchmark {
+
+    @Param({"fib", "loops", "strings", "closures"})
+    String workload;
+
+    @Param({"tree", "specialized", "jit", "flat", "vm"})
+    String engine;
+
+    private Interpreter interpreter;
+    private List<Stmt> statements;
+
+    private FlatInterpreter flat;
+
+    private VM vm;
+    private Function script;
+
+    @Setup
+    public void setup() {
+        statements = Workloads.parse(Workloads.named(workload));
+
+        ErrorReporter reporter = new ErrorReporter(System.err);
+        interpreter = new Interpreter(reporter);
+        interpreter.specializing = engine.equals("specialized");
+        interpreter.compiling = engine.equals("jit");
+        new Resolver(interpreter.globals, reporter).resolve(statements);
+        if (reporter.hadError())
+            throw new IllegalStateException("Benchmark source does not resolve.");
+
+        if (engine.equals("flat"))
+            flat = new FlatInterpreter(interpreter, new Flattener().flatten(statements));
+        if (engine.equals("vm")) {
+            vm = new VM();
+            script = new Compiler(vm).compile(statements);
+        }
+    }
+
+    @Benchmark
+    public void interpret() {
+        if (vm != null) {
+            vm.interpret(script);
+        } else if (flat != null) {
+            flat.interpret();
+        } else {
+            interpreter.interpret(statements);
+        }
+    }  //  end method interpret
+
+}  //  end class InterpreterBenchmark
@@ -0,0 +1,70 @@
+package net.nehar.lox;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of metering, on the engines that meter: the same workloads run
+ * with and without an effectively unlimited Budget. The bytecode VM is not
+ * metered and so is left out.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MeteredBenchmark {
+
+    @Param({"fib", "loops", "strings", "closures"})
+    String workload;
+
+    @Param({"tree", "specialized", "jit", "flat"})
+    String engine;
+
+    @Param({"false", "true"})
+    boolean metered;
+
+    private Interpreter interpreter;
+    private List<Stmt> statements;
+    private FlatInterpreter flat;
+
+    @Setup
+    public void setup() {
+        statements = Workloads.parse(Workloads.named(workload));
+
+        ErrorReporter reporter = new ErrorReporter(System.err);
+        interpreter = new Interpreter(reporter);
+        interpreter.specializing = engine.equals("specialized");
+        interpreter.compiling = engine.equals("jit");
+        if (metered) interpreter.meter(new Budget(Long.MAX_VALUE, null));
+        new Resolver(interpreter.globals, reporter).resolve(statements);
+        if (reporter.hadError())
+            throw new IllegalStateException("Benchmark source does not resolve.");
+
+        if (engine.equals("flat"))
+            flat = new FlatInterpreter(interpreter, new Flattener().flatten(statements));
+    }
+
+    @Benchmark
+    public void interpret() {
+        if (flat != null) {
+            flat.interpret();
+        } else {
+            interpreter.interpret(statements);
+        }
+    }  //  end method interpret
+
+}  //  end class MeteredBenchmark
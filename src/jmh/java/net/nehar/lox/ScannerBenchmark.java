@@ -0,0 +1,45 @@
+package net.nehar.lox;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lexing throughput over large generated sources.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScannerBenchmark {
+
+    @Param({"100", "10000"})
+    int repeats;
+
+    private String source;
+
+    private final ErrorReporter reporter = new ErrorReporter(System.err);
+
+    @Setup
+    public void setup() {
+        source = Workloads.generated(repeats);
+    }
+
+    @Benchmark
+    public TokenBuffer scanTokens() {
+        return new Scanner(source, reporter).scanTokens();
+    }  //  end method scanTokens
+
+}  //  end class ScannerBenchmark
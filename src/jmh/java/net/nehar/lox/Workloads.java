@@ -0,0 +1,98 @@
+package net.nehar.lox;
+
+import java.util.List;
+
+/**
+ * Lox sources shared by the benchmarks.
+ */
+final class Workloads {
+
+    private Workloads() {}
+
+    static final String FIB =
+            "fun fib(n) {\n" +
+            "  if (n < 2) return n;\n" +
+            "  return fib(n - 1) + fib(n - 2);\n" +
+            "}\n" +
+            "var result = fib(20);\n";
+
+    static final String LOOPS =
+            "var result = 0;\n" +
+            "var i = 0;\n" +
+            "while (i < 300) {\n" +
+            "  var j = 0;\n" +
+            "  while (j < 300) {\n" +
+            "    result = result + i * j - j;\n" +
+            "    j = j + 1;\n" +
+            "  }\n" +
+            "  i = i + 1;\n" +
+            "}\n";
+
+    static final String STRINGS =
+            "var result = \"\";\n" +
+            "for (var i = 0; i < 1000; i = i + 1) {\n" +
+            "  result = result + \"line \" + \"of text\\n\";\n" +
+            "}\n";
+
+    static final String CLOSURES =
+            "fun makeAdder(n) {\n" +
+            "  fun add(x) { return x + n; }\n" +
+            "  return add;\n" +
+            "}\n" +
+            "fun makeCounter() {\n" +
+            "  var count = 0;\n" +
+            "  fun increment() { count = count + 1; return count; }\n" +
+            "  return increment;\n" +
+            "}\n" +
+            "var result = 0;\n" +
+            "for (var i = 0; i < 5000; i = i + 1) {\n" +
+            "  var add = makeAdder(i);\n" +
+            "  var counter = makeCounter();\n" +
+            "  counter();\n" +
+            "  result = result + add(counter());\n" +
+            "}\n";
+
+    static String named(String workload) {
+        return switch (workload) {
+            case "fib" -> FIB;
+            case "loops" -> LOOPS;
+            case "strings" -> STRINGS;
+            case "closures" -> CLOSURES;
+            default -> throw new IllegalArgumentException("Unknown workload " + workload);
+        };
+    }  //  end method named
+
+    /**
+     * A large program built by repeating a mix of declarations, control
+     * flow, literals and comments, for scanner and parser throughput.
+     */
+    static String generated(int repeats) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < repeats; i++) {
+            builder.append("// block ").append(i).append('\n')
+                   .append("fun compute").append(i).append("(a, b) {\n")
+                   .append("  var total = a * 3.25 + b / 2;\n")
+                   .append("  if (total >= 100 and !(a == b)) {\n")
+                   .append("    print \"large value in block ").append(i).append("\";\n")
+                   .append("  } else {\n")
+                   .append("    total = -total;\n")
+                   .append("  }\n")
+                   .append("  for (var k = 0; k < 10; k = k + 1) total = total + k;\n")
+                   .append("  return total;\n")
+                   .append("}\n")
+                   .append("var result").append(i).append(" = compute").append(i)
+                   .append("(").append(i).append(", ").append(i * 7).append(");\n");
+        }
+        return builder.toString();
+    }  //  end method generated
+
+    static List<Stmt> parse(String source) {
+        ErrorReporter reporter = new ErrorReporter(System.err);
+        TokenBuffer tokens = new Scanner(source, reporter).scanTokens();
+        List<Stmt> statements = new Parser(tokens, reporter).parse();
+        if (reporter.hadError())
+            throw new IllegalStateException("Benchmark source does not parse.");
+        return statements;
+    }  //  end method parse
+
+}  //  end class Workloads
@@ -0,0 +1,81 @@
+package net.nehar.lox;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits on one execution of a script: a number of steps, a deadline, and
+ * cancellation from another thread. A step is one loop iteration or one
+ * call of a Lox function. Exceeding a limit stops the script with a
+ * runtime error at the loop or function that was about to run.
+ *
+ * Interpreters do not consult the budget on every step. They take steps in
+ * slices of up to SLICE and only count down a field in between, so the
+ * steps, the clock and the cancel flag are checked once per slice. A
+ * cancel or a passed deadline is therefore noticed within a slice's worth
+ * of steps. Natives that wait, receive and join, check the budget between
+ * waits of at most WAIT instead. Tasks spawned by a metered script draw on
+ * the same budget.
+ */
+public final class Budget {
+
+    // steps an interpreter takes between checks
+    static final int SLICE = 1 << 14;
+
+    // longest a waiting native goes between checks, in milliseconds
+    static final long WAIT = 10;
+
+    private final AtomicLong steps;
+    private final long deadline;
+    private final boolean timed;
+    private volatile boolean cancelled = false;
+
+    /**
+     * @param steps   steps allowed, Long.MAX_VALUE for no limit
+     * @param timeout time allowed from now, null for no deadline
+     */
+    public Budget(long steps, Duration timeout) {
+        this.steps = new AtomicLong(steps);
+        this.timed = timeout != null;
+        this.deadline = timed ? System.nanoTime() + timeout.toNanos() : 0;
+    }
+
+    /**
+     * Stop the execution using this budget, from any thread.
+     */
+    public void cancel() {
+        cancelled = true;
+    }  //  end method cancel
+
+    public boolean isCancelled() {
+        return cancelled;
+    }  //  end method isCancelled
+
+    /**
+     * Check the deadline and the cancel flag, without taking any steps.
+     *
+     * @param where token blamed if the run has to stop
+     */
+    void check(Token where) {
+        if (cancelled)
+            throw new RuntimeError(where, "Execution cancelled.");
+        if (timed && System.nanoTime() - deadline > 0)
+            throw new RuntimeError(where, "Execution deadline exceeded.");
+    }  //  end method check
+
+    /**
+     * Check the limits and take the next slice of steps.
+     *
+     * @param where token blamed if a limit has been exceeded
+     * @return steps in the slice, at least one
+     */
+    int slice(Token where) {
+        check(where);
+
+        long left = steps.getAndAdd(-SLICE);
+        if (left <= 0)
+            throw new RuntimeError(where, "Execution budget exceeded.");
+        return (int) Math.min(SLICE, left);
+    }  //  end method slice
+
+}  //  end class Budget
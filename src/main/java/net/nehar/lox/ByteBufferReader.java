@@ -0,0 +1,59 @@
+package net.nehar.lox;
+
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Reader over the bytes of a buffer, typically a memory-mapped script.
+ *
+ * Runs of ASCII are copied straight into the caller's array, since they
+ * are the same characters in any charset the JVM uses by default. Only
+ * other bytes go through a decoder for the charset.
+ */
+class ByteBufferReader extends Reader {
+
+    private final ByteBuffer bytes;
+    private final CharsetDecoder decoder;
+
+    ByteBufferReader(ByteBuffer bytes, Charset charset) {
+        this.bytes = bytes;
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }  //  end constructor
+
+    @Override
+    public int read(char[] chars, int offset, int length) {
+        if (length == 0) return 0;
+
+        int position = bytes.position();
+        int end = bytes.limit();
+        if (position == end) return -1;
+
+        int count = 0;
+        while (count < length && position < end) {
+            byte b = bytes.get(position);
+            if (b < 0) break;
+            chars[offset + count++] = (char) b;
+            position++;
+        }
+        bytes.position(position);
+        if (count > 0) return count;
+
+        CharBuffer out = CharBuffer.wrap(chars, offset, length);
+        decoder.decode(bytes, out, false);
+
+        // nothing decoded means a sequence cut off by the end of the input
+        if (out.position() == offset) decoder.decode(bytes, out, true);
+        return out.position() - offset;
+    }  //  end method read
+
+    @Override
+    public void close() {
+    }  //  end method close
+
+}  //  end class ByteBufferReader
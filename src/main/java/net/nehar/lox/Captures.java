@@ -0,0 +1,196 @@
+package net.nehar.lox;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+
+/**
+ * Escape analysis run by the Resolver before it hands out slots: finds the
+ * locals that are used from inside a function nested in the one declaring
+ * them, which therefore have to live in an environment a closure can keep.
+ * Along the way it marks each function that declares no functions as a
+ * leaf.
+ *
+ * Scoping follows the Resolver, but errors are left to it: a program it
+ * rejects never runs, whatever is found here.
+ */
+class Captures implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+    // name to declaring token, per scope
+    private final Stack<Map<String, Token>> scopes = new Stack<>();
+
+    // how many functions deep each scope is
+    private final Stack<Integer> functions = new Stack<>();
+    private int function = 0;
+
+    // set on the function being resolved when it declares a function
+    private Stmt.Function current = null;
+
+    private final Set<Token> captured = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * @return the declaring tokens of the captured locals
+     */
+    Set<Token> find(List<Stmt> statements) {
+        visit(statements);
+        return captured;
+    }  //  end method find
+
+    private void visit(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            statement.accept(this);
+        }
+    }  //  end method visit
+
+    private void beginScope() {
+        scopes.push(new HashMap<>());
+        functions.push(function);
+    }  //  end method beginScope
+
+    private void endScope() {
+        scopes.pop();
+        functions.pop();
+    }  //  end method endScope
+
+    private void declare(Token name) {
+        if (!scopes.isEmpty()) scopes.peek().put(name.lexeme, name);
+    }  //  end method declare
+
+    private void use(Token name) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            Token declaration = scopes.get(i).get(name.lexeme);
+            if (declaration != null) {
+                if (functions.get(i) != function) captured.add(declaration);
+                return;
+            }
+        }
+    }  //  end method use
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        visit(stmt.statements);
+        endScope();
+        return null;
+    }  //  end method visitBlockStmt
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        stmt.expression.accept(this);
+        return null;
+    }  //  end method visitExpressionStmt
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        declare(stmt.name);
+        if (current != null) current.leaf = false;
+
+        Stmt.Function enclosing = current;
+        current = stmt;
+        stmt.leaf = true;
+        function++;
+
+        beginScope();
+        for (Token param : stmt.params) {
+            declare(param);
+        }
+        visit(stmt.body);
+        endScope();
+
+        function--;
+        current = enclosing;
+        return null;
+    }  //  end method visitFunctionStmt
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        stmt.condition.accept(this);
+        stmt.thenBranch.accept(this);
+        if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+        return null;
+    }  //  end method visitIfStmt
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        stmt.expression.accept(this);
+        return null;
+    }  //  end method visitPrintStmt
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value != null) stmt.value.accept(this);
+        return null;
+    }  //  end method visitReturnStmt
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer != null) stmt.initializer.accept(this);
+        declare(stmt.name);
+        return null;
+    }  //  end method visitVarStmt
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        stmt.condition.accept(this);
+        stmt.body.accept(this);
+        return null;
+    }  //  end method visitWhileStmt
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        expr.value.accept(this);
+        use(expr.name);
+        return null;
+    }  //  end method visitAssignExpr
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        expr.left.accept(this);
+        expr.right.accept(this);
+        return null;
+    }  //  end method visitBinaryExpr
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        expr.callee.accept(this);
+        for (Expr argument : expr.arguments) {
+            argument.accept(this);
+        }
+        return null;
+    }  //  end method visitCallExpr
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        expr.expression.accept(this);
+        return null;
+    }  //  end method visitGroupingExpr
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }  //  end method visitLiteralExpr
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        expr.left.accept(this);
+        expr.right.accept(this);
+        return null;
+    }  //  end method visitLogicalExpr
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        expr.right.accept(this);
+        return null;
+    }  //  end method visitUnaryExpr
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        use(expr.name);
+        return null;
+    }  //  end method visitVariableExpr
+
+}  //  end class Captures
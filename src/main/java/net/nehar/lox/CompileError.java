@@ -0,0 +1,22 @@
+package net.nehar.lox;
+
+import java.util.List;
+
+/**
+ * Thrown by LoxEngine.compile for source that does not scan, parse or
+ * resolve. The message holds every error, one per line.
+ */
+public class CompileError extends RuntimeException {
+
+    private final List<String> errors;
+
+    CompileError(List<String> errors) {
+        super(String.join("\n", errors));
+        this.errors = List.copyOf(errors);
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }  //  end method getErrors
+
+}  //  end class CompileError
@@ -0,0 +1,86 @@
+package net.nehar.lox;
+
+import java.io.PrintStream;
+import java.util.List;
+
+/**
+ * A program compiled by a LoxEngine, ready to run.
+ *
+ * Every execution gets its own Interpreter and its own copy of the global
+ * scope, so executions on different threads never see each other's
+ * variables. What they share is the resolved tree, or only its FlatAst
+ * when it was flattened, and the tree's only writes at runtime are caches
+ * (call site targets, specializations, compiled function bodies) that stay
+ * correct whichever thread last wrote them.
+ */
+public final class CompiledScript {
+
+    // null when flat is set, the tree is not kept once flattened
+    private final List<Stmt> statements;
+    private final FlatAst flat;
+    private final Environment globals;
+    private final boolean specializing;
+    private final boolean compiling;
+
+    CompiledScript(List<Stmt> statements, FlatAst flat, Environment globals,
+                   boolean specializing, boolean compiling) {
+        this.statements = flat != null ? null : List.copyOf(statements);
+        this.flat = flat;
+        this.globals = globals;
+        this.specializing = specializing;
+        this.compiling = compiling;
+    }
+
+    /**
+     * Run on standard out, reporting a runtime error on standard error.
+     *
+     * @return false if the script stopped on a runtime error
+     */
+    public boolean execute() {
+        return execute(System.out, new ErrorReporter(System.err));
+    }  //  end method execute
+
+    /**
+     * Run with print writing to out and a runtime error, if any, going to
+     * reporter.
+     *
+     * @return false if the script stopped on a runtime error
+     */
+    public boolean execute(PrintStream out, ErrorReporter reporter) {
+        return execute(out, reporter, null);
+    }  //  end method execute(out, reporter)
+
+    /**
+     * Run as execute(out, reporter) does, stopping with a runtime error
+     * once the budget, if not null, runs out, passes its deadline or is
+     * cancelled.
+     *
+     * @return false if the script stopped on a runtime error
+     */
+    public boolean execute(PrintStream out, ErrorReporter reporter, Budget budget) {
+        return execute(out, reporter, budget, null);
+    }  //  end method execute(out, reporter, budget)
+
+    /**
+     * Run as execute(out, reporter, budget) does, sampled by profiler if
+     * it is not null.
+     *
+     * @return false if the script stopped on a runtime error
+     */
+    public boolean execute(PrintStream out, ErrorReporter reporter, Budget budget,
+                           Profiler profiler) {
+        Interpreter interpreter = new Interpreter(globals.copy(), out, reporter);
+        interpreter.specializing = specializing;
+        interpreter.compiling = compiling;
+        if (budget != null) interpreter.meter(budget);
+        if (profiler != null) interpreter.profile(profiler, "<script>");
+
+        try {
+            if (flat != null) return new FlatInterpreter(interpreter, flat).interpret();
+            return interpreter.interpret(statements);
+        } finally {
+            interpreter.finish();
+        }
+    }  //  end method execute(out, reporter, budget, profiler)
+
+}  //  end class CompiledScript
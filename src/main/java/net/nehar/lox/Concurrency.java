@@ -0,0 +1,147 @@
+package net.nehar.lox;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Natives for running Lox code concurrently:
+ *
+ *     spawn(fn)        run fn, a function of no arguments, as a task
+ *     join(task)       wait for a task and return what its function returned
+ *     channel()        an unbounded channel
+ *     send(ch, value)  put a value on a channel
+ *     receive(ch)      take the oldest value off a channel, waiting for one
+ *
+ * A metered run waiting in join or receive wakes up every Budget.WAIT to
+ * check its budget, so a deadline or cancel stops it there too.
+ *
+ * A task runs on its own Interpreter, forked from the spawning one, so it
+ * has its own scope, number register and pending tail call, and shares the
+ * globals and whatever its function closes over. Those are not
+ * synchronized: a variable is two plain fields (see Environment), so a
+ * task reading one while another task writes it can see a torn value.
+ * Tasks may only exchange values through send, receive and join, which
+ * order one task's writes before another's reads. A runtime error in a
+ * task is raised again by join.
+ *
+ * Tasks run on a pool of daemon threads, so a script does not wait at exit
+ * for tasks it never joined.
+ */
+final class Concurrency {
+
+    private Concurrency() {}
+
+    private static final Object[] NO_ARGUMENTS = {};
+
+    // stands in for nil on a channel, which cannot hold null
+    private static final Object NIL = new Object();
+
+    private static final ExecutorService tasks = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "lox-task");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final class Task {
+        final Future<Object> result;
+
+        Task(Future<Object> result) {
+            this.result = result;
+        }
+
+        @Override
+        public String toString() {
+            return "<task>";
+        }
+    }  //  end class Task
+
+    private static final class Channel {
+        final BlockingQueue<Object> values = new LinkedBlockingQueue<>();
+
+        @Override
+        public String toString() {
+            return "<channel>";
+        }
+    }  //  end class Channel
+
+    static void define(Environment globals) {
+        globals.define("spawn", new NativeFunction(1, Concurrency::spawn));
+        globals.define("join", new NativeFunction(1, Concurrency::join));
+        globals.define("channel", new NativeFunction(0, (interpreter, arguments) -> new Channel()));
+        globals.define("send", new NativeFunction(2, Concurrency::send));
+        globals.define("receive", new NativeFunction(1, Concurrency::receive));
+    }  //  end method define
+
+    private static Object spawn(Interpreter interpreter, Object[] arguments) {
+        if (!(arguments[0] instanceof LoxCallable function) || function.arity() != 0)
+            throw new RuntimeError("Can only spawn functions that take no arguments.");
+
+        Interpreter task = interpreter.fork();
+        return new Task(tasks.submit(() -> {
+            Events.Execution event = Events.execution(task);
+            try {
+                return task.box(function.call(task, NO_ARGUMENTS));
+            } finally {
+                if (event != null) event.end(task);
+                task.finish();
+            }
+        }));
+    }  //  end method spawn
+
+    private static Object join(Interpreter interpreter, Object[] arguments) {
+        if (!(arguments[0] instanceof Task task))
+            throw new RuntimeError("Can only join tasks.");
+
+        Budget budget = interpreter.budget();
+        try {
+            if (budget == null) return task.result.get();
+            for (;;) {
+                try {
+                    return task.result.get(Budget.WAIT, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    budget.check(null);
+                }
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            if (e.getCause() instanceof Error cause) throw cause;
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeError("Interrupted while joining a task.");
+        }
+    }  //  end method join
+
+    private static Object send(Interpreter interpreter, Object[] arguments) {
+        channel(arguments[0]).values.add(arguments[1] == null ? NIL : arguments[1]);
+        return null;
+    }  //  end method send
+
+    private static Object receive(Interpreter interpreter, Object[] arguments) {
+        BlockingQueue<Object> values = channel(arguments[0]).values;
+        Budget budget = interpreter.budget();
+        try {
+            Object value = budget == null ? values.take() : values.poll();
+            while (value == null) {
+                budget.check(null);
+                value = values.poll(Budget.WAIT, TimeUnit.MILLISECONDS);
+            }
+            return value == NIL ? null : value;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeError("Interrupted while receiving.");
+        }
+    }  //  end method receive
+
+    private static Channel channel(Object value) {
+        if (value instanceof Channel channel) return channel;
+        throw new RuntimeError("Can only send and receive on channels.");
+    }  //  end method channel
+
+}  //  end class Concurrency
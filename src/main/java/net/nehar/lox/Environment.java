@@ -1,51 +1,123 @@
 package net.nehar.lox;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 /**
  * Class to store variable bindings.
  *
+ * Locals live in a flat array sized by the Resolver, and are reached by
+ * hopping a fixed number of enclosing scopes and indexing a slot. The
+ * global scope is the only one that still knows variable names, so the
+ * Resolver can hand out global slots and natives can be defined by name.
+ *
+ * Every slot has two lanes so numbers are stored without boxing: a slot
+ * holding a number has the NUMBER marker in values and the actual double
+ * in numbers. Stores write the number before the marker, so the marker is
+ * never set ahead of its number in program order. Nothing more is
+ * promised to another thread: a slot is two plain fields, and a task that
+ * reads one while another writes it may see the marker with a stale
+ * number. Tasks hand values to each other through send, receive and join.
  */
 public class Environment {
 
-    final Environment enclosing;
+    // value lane marker for a slot whose number lives in the number lane
+    static final Object NUMBER = new Object();
+
+    // marks a global slot that has been handed out but never defined
+    static final Object UNDEFINED = new Object();
+
+    private static final Object[] NO_VALUES = {};
+    private static final double[] NO_NUMBERS = {};
+
+    // only changes when the interpreter reuses a frame for another call
+    Environment enclosing;
 
-    private final Map<String, Object> values = new HashMap<>();
+    Object[] values;
+    double[] numbers;
+
+    // global scope only: name to slot index
+    private final Map<String, Integer> slots;
 
     Environment() {
         this.enclosing = null;
+        this.values = new Object[16];
+        this.numbers = new double[16];
+        this.slots = new HashMap<>();
+        Arrays.fill(values, UNDEFINED);
     }
 
-    Environment(Environment enclosing) {
+    Environment(Environment enclosing, int size) {
         this.enclosing = enclosing;
+        this.values = size == 0 ? NO_VALUES : new Object[size];
+        this.numbers = size == 0 ? NO_NUMBERS : new double[size];
+        this.slots = null;
     }
 
-    void define(String name, Object value) {
-        values.put(name, value);
-    }  //  end method define
+    private Environment(Environment globals) {
+        this.enclosing = null;
+        this.values = globals.values.clone();
+        this.numbers = globals.numbers.clone();
+        this.slots = globals.slots;
+    }
 
-    Object get(Token name) {
-        if(values.containsKey(name.lexeme))
-            return values.get(name.lexeme);
+    /**
+     * Copy of a global scope with the same slots and values, for another
+     * run of a program resolved against it. The copies share the name to
+     * slot map, so none of them may reserve new slots.
+     */
+    Environment copy() {
+        return new Environment(this);
+    }  //  end method copy
 
-        // Recursively check enclosing scope(s)
-        if (enclosing != null) return enclosing.get(name);
+    /**
+     * Slot for a global name, reserving a new one if needed.
+     */
+    int slot(String name) {
+        Integer slot = slots.get(name);
+        if (slot != null) return slot;
 
-        throw new RuntimeError(name, "Undefined variable " + name.lexeme + ".");
-    }  //  end method get
+        slot = slots.size();
+        if (slot == values.length) {
+            int size = values.length;
+            values = Arrays.copyOf(values, size * 2);
+            numbers = Arrays.copyOf(numbers, size * 2);
+            Arrays.fill(values, size, values.length, UNDEFINED);
+        }
+        slots.put(name, slot);
+        return slot;
+    }  //  end method slot
+
+    void define(String name, Object value) {
+        set(slot(name), value);
+    }  //  end method define
 
-    void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
-            return;
+    /**
+     * Store a boxed value, moving numbers into the number lane.
+     */
+    void set(int slot, Object value) {
+        if (value instanceof Double) {
+            numbers[slot] = (double) value;
+            values[slot] = NUMBER;
+        } else {
+            values[slot] = value;
         }
+    }  //  end method set
+
+    /**
+     * Boxed value of a slot, for code that cannot take the two lanes.
+     */
+    Object get(int slot) {
+        Object value = values[slot];
+        return value == NUMBER ? (Object) numbers[slot] : value;
+    }  //  end method get
 
-        // Recursively check enclosing scope(s)
-        if (enclosing != null){
-            enclosing.assign(name, value);
-            return;
+    Environment ancestor(int distance) {
+        Environment environment = this;
+        for (int i = 0; i < distance; i++) {
+            environment = environment.enclosing;
         }
-        throw new RuntimeError(name, "Undefined variable " + name.lexeme + ".");
-    }  //  end method assign
+        return environment;
+    }  //  end method ancestor
 
 }  //  end class Environment
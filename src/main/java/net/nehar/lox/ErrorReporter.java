@@ -0,0 +1,66 @@
+package net.nehar.lox;
+
+import java.io.PrintStream;
+
+/**
+ * Where the errors of one compile or one execution go.
+ *
+ * Prints them to a stream in the jlox command line format by default.
+ * Embedders can override report and reportRuntime to collect them instead;
+ * the error flags are kept either way.
+ */
+public class ErrorReporter {
+
+    private final PrintStream err;
+
+    boolean hadError = false;
+    boolean hadRuntimeError = false;
+
+    public ErrorReporter(PrintStream err) {
+        this.err = err;
+    }
+
+    public boolean hadError() {
+        return hadError;
+    }  //  end method hadError
+
+    public boolean hadRuntimeError() {
+        return hadRuntimeError;
+    }  //  end method hadRuntimeError
+
+    void error(int line, String message) {
+        hadError = true;
+        report(line, "", message);
+    }  // end error(line, message)
+
+    void error(Token token, String message) {
+        hadError = true;
+        if (token.type == TokenType.EOF) {
+            report(token.line, "at end", message);
+        } else {
+            report(token.line, " at '" + token.lexeme +",", message);
+        }
+    }  //  end error(token, message)
+
+    void runtimeError(RuntimeError error) {
+        runtimeError(error.token.line, error.getMessage());
+    }  //  end method runtimeError
+
+    void runtimeError(int line, String message) {
+        hadRuntimeError = true;
+        Events.runtimeError(line, message);
+        reportRuntime(line, message);
+    }  //  end method runtimeError(line, message)
+
+    /**
+     * A scan, parse or resolution error.
+     */
+    protected void report(int line, String where, String message) {
+        err.println("[line " + line + "] Error" + where + ": " + message);
+    }  // end report
+
+    protected void reportRuntime(int line, String message) {
+        err.println(message + "\n[line " + line + "]");
+    }  //  end method reportRuntime
+
+}  //  end class ErrorReporter
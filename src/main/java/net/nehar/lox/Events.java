@@ -0,0 +1,200 @@
+package net.nehar.lox;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder events for Lox programs, under the Lox category of a
+ * recording.
+ *
+ * Loading an event class registers it with Flight Recorder, which takes
+ * hundreds of milliseconds when nothing else has started it, so the event
+ * classes are only touched once the recorder is up. Until then each hook
+ * costs a read of one flag; the interpreters only count environments
+ * regardless, a field increment next to each allocation they make anyway.
+ */
+final class Events {
+
+    private Events() {}
+
+    /**
+     * Whether Flight Recorder has been started in this JVM, by a command
+     * line option, jcmd or the API.
+     */
+    static boolean recording() {
+        return FlightRecorder.isInitialized();
+    }  //  end method recording
+
+    /**
+     * Times the phases of one compile, for a Compile event. Does nothing
+     * unless the event is enabled.
+     */
+    static final class Compilation {
+
+        private final Scanner scanner;
+        private Compile event = null;
+
+        // when the phase being timed started
+        private long mark;
+
+        Compilation(Scanner scanner) {
+            this.scanner = scanner;
+            if (!recording()) return;
+
+            Compile event = new Compile();
+            if (!event.isEnabled()) return;
+            this.event = event;
+            event.begin();
+            scanner.timed = true;
+            mark = System.nanoTime();
+        }
+
+        void parsed() {
+            if (event == null) return;
+            long now = System.nanoTime();
+            event.scan = scanner.time;
+            event.parse = now - mark - scanner.time;
+            mark = now;
+        }  //  end method parsed
+
+        void resolved() {
+            if (event == null) return;
+            long now = System.nanoTime();
+            event.resolve = now - mark;
+            mark = now;
+        }  //  end method resolved
+
+        void commit() {
+            if (event != null) event.commit();
+        }  //  end method commit
+
+    }  //  end class Compilation
+
+    /**
+     * Call event begun now, or null if calls are not being recorded.
+     */
+    static Call call() {
+        if (!recording()) return null;
+
+        Call event = new Call();
+        if (!event.isEnabled()) return null;
+        event.begin();
+        return event;
+    }  //  end method call
+
+    /**
+     * Execution event begun now for a run on interpreter, or null if
+     * executions are not being recorded.
+     */
+    static Execution execution(Interpreter interpreter) {
+        if (!recording()) return null;
+
+        Execution event = new Execution();
+        if (!event.isEnabled()) return null;
+        event.begin();
+        event.start = interpreter.environments;
+        return event;
+    }  //  end method execution
+
+    static void runtimeError(int line, String message) {
+        if (!recording()) return;
+
+        Error event = new Error();
+        if (!event.shouldCommit()) return;
+        event.message = message;
+        event.line = line;
+        event.commit();
+    }  //  end method runtimeError
+
+    @Name("lox.Compile")
+    @Label("Lox Compile")
+    @Category("Lox")
+    @Description("Scanning, parsing and resolving a program")
+    @StackTrace(false)
+    static final class Compile extends Event {
+
+        @Label("Scan")
+        @Timespan
+        long scan;
+
+        @Label("Parse")
+        @Description("Time parsing, not counting the scanning it asked for")
+        @Timespan
+        long parse;
+
+        @Label("Resolve")
+        @Timespan
+        long resolve;
+
+    }  //  end class Compile
+
+    @Name("lox.Call")
+    @Label("Lox Call")
+    @Category("Lox")
+    @Description("Call of a Lox function that ran longer than the threshold")
+    @Threshold("20 ms")
+    @StackTrace(false)
+    static final class Call extends Event {
+
+        @Label("Function")
+        String function;
+
+        @Label("Line")
+        @Description("Line the function is declared on")
+        int line;
+
+        void end(String function, int line) {
+            end();
+            if (!shouldCommit()) return;
+            this.function = function;
+            this.line = line;
+            commit();
+        }  //  end method end
+
+    }  //  end class Call
+
+    @Name("lox.RuntimeError")
+    @Label("Lox Runtime Error")
+    @Category("Lox")
+    @StackTrace(false)
+    static final class Error extends Event {
+
+        @Label("Message")
+        String message;
+
+        @Label("Line")
+        int line;
+
+    }  //  end class Error
+
+    @Name("lox.Execution")
+    @Label("Lox Execution")
+    @Category("Lox")
+    @Description("Run of a program, or of a spawned task")
+    @StackTrace(false)
+    static final class Execution extends Event {
+
+        @Label("Environments")
+        @Description("Scopes allocated for calls and blocks")
+        long environments;
+
+        // the interpreter's count when the run started
+        private transient long start;
+
+        void end(Interpreter interpreter) {
+            end();
+            if (!shouldCommit()) return;
+            environments = interpreter.environments - start;
+            commit();
+        }  //  end method end
+
+    }  //  end class Execution
+
+}  //  end class Events
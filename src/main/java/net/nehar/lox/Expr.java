@@ -2,8 +2,8 @@ package net.nehar.lox;
 
 import java.util.List;
 
-abstract class Expr {
-    interface Visitor<R> {
+public abstract class Expr {
+    public interface Visitor<R> {
         R visitAssignExpr(Assign expr);
         R visitBinaryExpr(Binary expr);
         R visitCallExpr(Call expr);
@@ -14,22 +14,24 @@ abstract class Expr {
         R visitVariableExpr(Variable expr);
     }  //  end interface Visitor
 
-    static class Assign extends Expr {
+    public static class Assign extends Expr {
         Assign(Token name, Expr value) {
             this.name = name;
             this.value = value;
         } //  end constructor
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitAssignExpr(this);
         }
 
-        final Token name;
-        final Expr value;
+        public final Token name;
+        public final Expr value;
+        int depth = -1;
+        int slot;
     }  //  end class Assign
 
-    static class Binary extends Expr {
+    public static class Binary extends Expr {
         Binary(Expr left, Token operator, Expr right) {
             this.left = left;
             this.operator = operator;
@@ -37,16 +39,17 @@ abstract class Expr {
         } //  end constructor
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitBinaryExpr(this);
         }
 
-        final Expr left;
-        final Token operator;
-        final Expr right;
+        public final Expr left;
+        public final Token operator;
+        public final Expr right;
+        int specialization;
     }  //  end class Binary
 
-    static class Call extends Expr {
+    public static class Call extends Expr {
         Call(Expr callee, Token paren, List<Expr> arguments) {
             this.callee = callee;
             this.paren = paren;
@@ -54,42 +57,43 @@ abstract class Expr {
         } //  end constructor
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitCallExpr(this);
         }
 
-        final Expr callee;
-        final Token paren;
-        final List<Expr> arguments;
+        public final Expr callee;
+        public final Token paren;
+        public final List<Expr> arguments;
+        Object target;
     }  //  end class Call
 
-    static class Grouping extends Expr {
+    public static class Grouping extends Expr {
         Grouping(Expr expression) {
             this.expression = expression;
         } //  end constructor
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitGroupingExpr(this);
         }
 
-        final Expr expression;
+        public final Expr expression;
     }  //  end class Grouping
 
-    static class Literal extends Expr {
+    public static class Literal extends Expr {
         Literal(Object value) {
             this.value = value;
         } //  end constructor
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitLiteralExpr(this);
         }
 
-        final Object value;
+        public final Object value;
     }  //  end class Literal
 
-    static class Logical extends Expr {
+    public static class Logical extends Expr {
         Logical(Expr left, Token operator, Expr right) {
             this.left = left;
             this.operator = operator;
@@ -97,43 +101,46 @@ abstract class Expr {
         } //  end constructor
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitLogicalExpr(this);
         }
 
-        final Expr left;
-        final Token operator;
-        final Expr right;
+        public final Expr left;
+        public final Token operator;
+        public final Expr right;
     }  //  end class Logical
 
-    static class Unary extends Expr {
+    public static class Unary extends Expr {
         Unary(Token operator, Expr right) {
             this.operator = operator;
             this.right = right;
         } //  end constructor
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitUnaryExpr(this);
         }
 
-        final Token operator;
-        final Expr right;
+        public final Token operator;
+        public final Expr right;
+        int specialization;
     }  //  end class Unary
 
-    static class Variable extends Expr {
+    public static class Variable extends Expr {
         Variable(Token name) {
             this.name = name;
         } //  end constructor
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitVariableExpr(this);
         }
 
-        final Token name;
+        public final Token name;
+        int depth = -1;
+        int slot;
     }  //  end class Variable
 
-    abstract <R> R accept(Visitor<R> visitor);
+    public abstract <R> R accept(Visitor<R> visitor);
 
 }  //  end abstract class Expr
@@ -0,0 +1,176 @@
+package net.nehar.lox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A resolved program stored as a few primitive arrays rather than a graph
+ * of node objects.
+ *
+ * Each node is four ints in nodes, its kind followed by three operands,
+ * and is referred to by its offset in that array. Operands are child nodes,
+ * resolved depths and slots, or indexes into the tables below: lists holds
+ * statement and argument lists as a count followed by node offsets,
+ * functions holds a name, arity, slot count, body list, line and leaf
+ * flag per declaration, and literals and names live in numbers and
+ * constants. Source lines are a side table, only read when reporting a
+ * runtime error.
+ *
+ * Children are laid out before their parents, in evaluation order, so a
+ * walk over a function body mostly moves forward through one array.
+ */
+final class FlatAst {
+
+    // literals, a: index into numbers or constants
+    static final int NIL = 0;
+    static final int TRUE = 1;
+    static final int FALSE = 2;
+    static final int NUMBER = 3;
+    static final int STRING = 4;
+
+    // variables, a: depth, b: slot, c: value (locals)
+    //            a: slot, b: name constant, c: value (globals)
+    static final int GET_LOCAL = 5;
+    static final int GET_GLOBAL = 6;
+    static final int SET_LOCAL = 7;
+    static final int SET_GLOBAL = 8;
+
+    // operators, a: left or only operand, b: right operand
+    static final int ADD = 9;
+    static final int SUBTRACT = 10;
+    static final int MULTIPLY = 11;
+    static final int DIVIDE = 12;
+    static final int GREATER = 13;
+    static final int GREATER_EQUAL = 14;
+    static final int LESS = 15;
+    static final int LESS_EQUAL = 16;
+    static final int EQUAL = 17;
+    static final int NOT_EQUAL = 18;
+    static final int NEGATE = 19;
+    static final int NOT = 20;
+    static final int AND = 21;
+    static final int OR = 22;
+
+    // a: callee, b: argument list
+    static final int CALL = 23;
+
+    // statements
+    static final int EXPRESSION = 24;     // a: expression
+    static final int PRINT = 25;          // a: expression
+    static final int VAR = 26;            // a: slot, b: initializer or -1
+    static final int BLOCK = 27;          // a: slots or -1 if unscoped, b: statement list
+    static final int IF = 28;             // a: condition, b: then, c: else or -1
+    static final int WHILE = 29;          // a: condition, b: body, c: counter slot + 1 or 0
+    static final int RETURN = 30;         // a: value or -1
+    static final int FUNCTION = 31;       // a: slot, b: index into functions
+
+    // ints per node, and per entry in functions
+    static final int NODE = 4;
+    static final int FUNCTION_ENTRY = 6;
+
+    int[] nodes = new int[256];
+    int[] lines = new int[64];
+    int[] lists = new int[64];
+    int[] functions = new int[FUNCTION_ENTRY * 16];
+    double[] numbers = new double[16];
+    Object[] constants = new Object[16];
+
+    // list of the top-level statements
+    int root;
+
+    private int nodeCount = 0;
+    private int listSize = 0;
+    private int functionCount = 0;
+    private int numberCount = 0;
+    private int constantCount = 0;
+    private Map<Object, Integer> constantIndexes = new HashMap<>();
+
+    /**
+     * Append a node.
+     *
+     * @return the node's offset
+     */
+    int node(int kind, int a, int b, int c, int line) {
+        if (nodeCount * NODE == nodes.length) {
+            nodes = Arrays.copyOf(nodes, nodes.length * 2);
+            lines = Arrays.copyOf(lines, lines.length * 2);
+        }
+        int node = nodeCount * NODE;
+        nodes[node] = kind;
+        nodes[node + 1] = a;
+        nodes[node + 2] = b;
+        nodes[node + 3] = c;
+        lines[nodeCount++] = line;
+        return node;
+    }  //  end method node
+
+    /**
+     * Append a list of node offsets.
+     *
+     * @return the list's index in lists
+     */
+    int list(int[] elements) {
+        while (listSize + elements.length + 1 > lists.length) {
+            lists = Arrays.copyOf(lists, lists.length * 2);
+        }
+        int list = listSize;
+        lists[listSize++] = elements.length;
+        System.arraycopy(elements, 0, lists, listSize, elements.length);
+        listSize += elements.length;
+        return list;
+    }  //  end method list
+
+    int function(String name, int arity, int slots, int body, int line, boolean leaf) {
+        if (functionCount * FUNCTION_ENTRY == functions.length)
+            functions = Arrays.copyOf(functions, functions.length * 2);
+        int function = functionCount * FUNCTION_ENTRY;
+        functions[function] = constant(name);
+        functions[function + 1] = arity;
+        functions[function + 2] = slots;
+        functions[function + 3] = body;
+        functions[function + 4] = line;
+        functions[function + 5] = leaf ? 1 : 0;
+        functionCount++;
+        return function;
+    }  //  end method function
+
+    int number(double value) {
+        if (numberCount == numbers.length)
+            numbers = Arrays.copyOf(numbers, numberCount * 2);
+        numbers[numberCount] = value;
+        return numberCount++;
+    }  //  end method number
+
+    /**
+     * Index of a string constant, shared by every node that uses it.
+     */
+    int constant(Object value) {
+        Integer index = constantIndexes.get(value);
+        if (index != null) return index;
+
+        if (constantCount == constants.length)
+            constants = Arrays.copyOf(constants, constantCount * 2);
+        constants[constantCount] = value;
+        constantIndexes.put(value, constantCount);
+        return constantCount++;
+    }  //  end method constant
+
+    int line(int node) {
+        return lines[node / NODE];
+    }  //  end method line
+
+    /**
+     * Trim every table to its used length once the program is complete.
+     */
+    void trim() {
+        nodes = Arrays.copyOf(nodes, nodeCount * NODE);
+        lines = Arrays.copyOf(lines, nodeCount);
+        lists = Arrays.copyOf(lists, listSize);
+        functions = Arrays.copyOf(functions, functionCount * FUNCTION_ENTRY);
+        numbers = Arrays.copyOf(numbers, numberCount);
+        constants = Arrays.copyOf(constants, constantCount);
+        constantIndexes = null;
+    }  //  end method trim
+
+}  //  end class FlatAst
@@ -0,0 +1,106 @@
+package net.nehar.lox;
+
+/**
+ * A function declared in a FlatAst, closed over the scope it was declared
+ * in.
+ */
+class FlatFunction implements LoxCallable {
+    private final FlatInterpreter interpreter;
+    private final int declaration;
+    private final Environment closure;
+
+    FlatFunction(FlatInterpreter interpreter, int declaration, Environment closure) {
+        this.interpreter = interpreter;
+        this.declaration = declaration;
+        this.closure = closure;
+    }
+
+    @Override
+    public int arity() {
+        return interpreter.functions[declaration + 1];
+    }  //  end method arity
+
+    @Override
+    public String toString() {
+        return "<fn " + interpreter.constants[interpreter.functions[declaration]] + ">";
+    }  //  end method toString
+
+    @Override
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        Environment environment = bind(interpreter);
+        for (int i = 0; i < arguments.length; i++) {
+            environment.set(i, arguments[i]);
+        }
+        // the caller may be another thread's interpreter
+        return interpreter.box(invoke(this.interpreter.on(interpreter), environment));
+    }  //  end method call
+
+    /**
+     * Scope for a call, to be filled with the arguments.
+     */
+    Environment bind(Interpreter interpreter) {
+        return interpreter.allocate(closure, this.interpreter.functions[declaration + 2]);
+    }  //  end method bind
+
+    /**
+     * Run the body on a walker in a scope made by bind, then any tail calls
+     * it leaves behind. A returned number comes back in the number register.
+     * Leaf functions give their scope back once their body has run.
+     */
+    Object invoke(FlatInterpreter walker, Environment environment) {
+        Object completion = execute(walker, environment);
+        if (leaf()) walker.interpreter.recycle(environment);
+        if (completion == Interpreter.TAIL_CALL) completion = trampoline(walker);
+        return completion == Interpreter.NORMAL ? null : completion;
+    }  //  end method invoke
+
+    /**
+     * Run the pending tail calls, under this function's frame on the shadow
+     * stack when profiling, as LoxFunction.trampoline does.
+     */
+    private Object trampoline(FlatInterpreter walker) {
+        Profiler.Stack stack = walker.interpreter.stack;
+        if (stack != null)
+            stack.push((String) interpreter.constants[interpreter.functions[declaration]],
+                    interpreter.functions[declaration + 4]);
+        try {
+            Object completion;
+            do {
+                FlatFunction function = walker.tailFunction;
+                Environment frame = walker.tailFrame;
+                walker.tailFunction = null;
+                walker.tailFrame = null;
+                completion = function.execute(walker, frame);
+                if (function.leaf()) walker.interpreter.recycle(frame);
+            } while (completion == Interpreter.TAIL_CALL);
+            return completion;
+        } finally {
+            if (stack != null) stack.pop();
+        }
+    }  //  end method trampoline
+
+    private boolean leaf() {
+        return interpreter.functions[declaration + 5] != 0;
+    }  //  end method leaf
+
+    private Object execute(FlatInterpreter walker, Environment environment) {
+        int[] functions = interpreter.functions;
+        if (--walker.interpreter.fuel < 0) walker.refuel(functions[declaration + 4]);
+
+        Profiler.Stack stack = walker.interpreter.stack;
+        if (stack == null && !Events.recording())
+            return walker.executeList(functions[declaration + 3], environment);
+
+        String name = (String) interpreter.constants[functions[declaration]];
+        int line = functions[declaration + 4];
+        if (stack != null) stack.push(name, line);
+        Events.Call event = Events.call();
+        try {
+            return walker.executeList(functions[declaration + 3], environment);
+        } finally {
+            if (stack != null) stack.pop();
+            if (event != null) event.end(name, line);
+        }
+    }  //  end method execute
+
+}  //  end class FlatFunction
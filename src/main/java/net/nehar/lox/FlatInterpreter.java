@@ -0,0 +1,382 @@
+package net.nehar.lox;
+
+/**
+ * Walks a FlatAst by node offset, switching on each node's kind.
+ *
+ * Runs on the tree-walking interpreter's globals and follows its
+ * conventions: numbers travel as Environment.NUMBER with the value in the
+ * interpreter's number register, statements return its completions, and a
+ * returned call to a flat function is left to FlatFunction.invoke.
+ */
+final class FlatInterpreter {
+
+    final Interpreter interpreter;
+    private final Environment globals;
+
+    // the program's tables, read directly by the walk
+    private final int[] nodes;
+    private final int[] lines;
+    private final int[] lists;
+    final int[] functions;
+    private final double[] numbers;
+    final Object[] constants;
+    private final int root;
+
+    // pending tail call, valid right after a TAIL_CALL completion
+    FlatFunction tailFunction;
+    Environment tailFrame;
+
+    FlatInterpreter(Interpreter interpreter, FlatAst ast) {
+        this.interpreter = interpreter;
+        this.globals = interpreter.globals;
+        this.nodes = ast.nodes;
+        this.lines = ast.lines;
+        this.lists = ast.lists;
+        this.functions = ast.functions;
+        this.numbers = ast.numbers;
+        this.constants = ast.constants;
+        this.root = ast.root;
+    }
+
+    private FlatInterpreter(Interpreter interpreter, FlatInterpreter program) {
+        this.interpreter = interpreter;
+        this.globals = interpreter.globals;
+        this.nodes = program.nodes;
+        this.lines = program.lines;
+        this.lists = program.lists;
+        this.functions = program.functions;
+        this.numbers = program.numbers;
+        this.constants = program.constants;
+        this.root = program.root;
+    }
+
+    /**
+     * Walker for the same program on another Interpreter, such as a
+     * spawned task's.
+     */
+    FlatInterpreter on(Interpreter interpreter) {
+        if (interpreter == this.interpreter) return this;
+        return new FlatInterpreter(interpreter, this);
+    }  //  end method on
+
+    /**
+     * @return false if the program stopped on a runtime error
+     */
+    boolean interpret() {
+        Events.Execution event = Events.execution(interpreter);
+        try {
+            executeList(root, globals);
+            return true;
+        } catch (RuntimeError error) {
+            interpreter.reportRuntimeError(error);
+            return false;
+        } finally {
+            interpreter.out.flush();
+            if (event != null) event.end(interpreter);
+        }
+    }  //  end method interpret
+
+    /**
+     * @return NORMAL, or the returned value if a return was executed
+     */
+    Object executeList(int list, Environment environment) {
+        int end = list + lists[list];
+        for (int i = list + 1; i <= end; i++) {
+            Object completion = execute(lists[i], environment);
+            if (completion != Interpreter.NORMAL) return completion;
+        }
+        return Interpreter.NORMAL;
+    }  //  end method executeList
+
+    private Object execute(int node, Environment environment) {
+        int a = nodes[node + 1];
+        int b = nodes[node + 2];
+
+        switch (nodes[node]) {
+            case FlatAst.EXPRESSION:
+                evaluate(a, environment);
+                return Interpreter.NORMAL;
+
+            case FlatAst.PRINT: {
+                Object value = evaluate(a, environment);
+                interpreter.print(value);
+                return Interpreter.NORMAL;
+            }
+
+            case FlatAst.VAR:
+                store(environment, a, b != -1 ? evaluate(b, environment) : null);
+                return Interpreter.NORMAL;
+
+            case FlatAst.BLOCK:
+                if (a < 0) return executeList(b, environment);
+                interpreter.environments++;
+                return executeList(b, new Environment(environment, a));
+
+            case FlatAst.IF: {
+                if (Interpreter.isTruthy(evaluate(a, environment)))
+                    return execute(b, environment);
+                int elseBranch = nodes[node + 3];
+                if (elseBranch != -1) return execute(elseBranch, environment);
+                return Interpreter.NORMAL;
+            }
+
+            case FlatAst.WHILE:
+                if (nodes[node + 3] != 0) return countedLoop(node, environment);
+                return loop(node, environment);
+
+            case FlatAst.RETURN:
+                if (a == -1) return null;
+                if (nodes[a] == FlatAst.CALL) return call(a, environment, true);
+                // a returned number stays in the register on the way out
+                return evaluate(a, environment);
+
+            case FlatAst.FUNCTION:
+                environment.values[a] = new FlatFunction(this, b, environment);
+                return Interpreter.NORMAL;
+
+            default:
+                throw new IllegalStateException("Not a statement: " + nodes[node]);
+        }
+    }  //  end method execute
+
+    private Object evaluate(int node, Environment environment) {
+        int a = nodes[node + 1];
+        int b = nodes[node + 2];
+
+        switch (nodes[node]) {
+            case FlatAst.NIL:
+                return null;
+            case FlatAst.TRUE:
+                return true;
+            case FlatAst.FALSE:
+                return false;
+            case FlatAst.NUMBER:
+                interpreter.number = numbers[a];
+                return Environment.NUMBER;
+            case FlatAst.STRING:
+                return constants[a];
+
+            case FlatAst.GET_LOCAL:
+                return load(environment.ancestor(a), b);
+
+            case FlatAst.GET_GLOBAL: {
+                Object value = load(globals, a);
+                if (value == Environment.UNDEFINED)
+                    throw error(node, "Undefined variable " + constants[b] + ".");
+                return value;
+            }
+
+            case FlatAst.SET_LOCAL: {
+                Object value = evaluate(nodes[node + 3], environment);
+                store(environment.ancestor(a), b, value);
+                return value;
+            }
+
+            case FlatAst.SET_GLOBAL: {
+                Object value = evaluate(nodes[node + 3], environment);
+                if (globals.values[a] == Environment.UNDEFINED)
+                    throw error(node, "Undefined variable " + constants[b] + ".");
+                store(globals, a, value);
+                return value;
+            }
+
+            case FlatAst.NEGATE: {
+                Object right = evaluate(a, environment);
+                if (right != Environment.NUMBER)
+                    throw error(node, "Operand must be a number.");
+                interpreter.number = -interpreter.number;
+                return Environment.NUMBER;
+            }
+
+            case FlatAst.NOT:
+                return !Interpreter.isTruthy(evaluate(a, environment));
+
+            case FlatAst.AND: {
+                Object left = evaluate(a, environment);
+                if (!Interpreter.isTruthy(left)) return left;
+                return evaluate(b, environment);
+            }
+
+            case FlatAst.OR: {
+                Object left = evaluate(a, environment);
+                if (Interpreter.isTruthy(left)) return left;
+                return evaluate(b, environment);
+            }
+
+            case FlatAst.CALL:
+                return call(node, environment, false);
+
+            default:
+                return binary(node, environment, a, b);
+        }
+    }  //  end method evaluate
+
+    private Object binary(int node, Environment environment, int a, int b) {
+        Object left = evaluate(a, environment);
+        double l = interpreter.number;
+        Object right = evaluate(b, environment);
+        double r = interpreter.number;
+        int kind = nodes[node];
+
+        switch (kind) {
+            case FlatAst.EQUAL:
+                return Interpreter.isEqual(left, l, right, r);
+            case FlatAst.NOT_EQUAL:
+                return !Interpreter.isEqual(left, l, right, r);
+            case FlatAst.ADD:
+                if (left == Environment.NUMBER && right == Environment.NUMBER) {
+                    interpreter.number = l + r;
+                    return Environment.NUMBER;
+                }
+                if (Rope.isString(left) && Rope.isString(right))
+                    return Rope.concat(left, right);
+                throw error(node, "Operands must be two numbers or strings.");
+        }
+
+        if (left != Environment.NUMBER || right != Environment.NUMBER)
+            throw error(node, "Operand must be numbers.");
+
+        switch (kind) {
+            case FlatAst.SUBTRACT:
+                interpreter.number = l - r;
+                return Environment.NUMBER;
+            case FlatAst.MULTIPLY:
+                interpreter.number = l * r;
+                return Environment.NUMBER;
+            case FlatAst.DIVIDE:
+                interpreter.number = l / r;
+                return Environment.NUMBER;
+            case FlatAst.GREATER:
+                return l > r;
+            case FlatAst.GREATER_EQUAL:
+                return l >= r;
+            case FlatAst.LESS:
+                return l < r;
+            case FlatAst.LESS_EQUAL:
+                return l <= r;
+            default:
+                throw new IllegalStateException("Not an expression: " + kind);
+        }
+    }  //  end method binary
+
+    private Object loop(int node, Environment environment) {
+        int condition = nodes[node + 1];
+        int body = nodes[node + 2];
+        while (Interpreter.isTruthy(evaluate(condition, environment))) {
+            if (--interpreter.fuel < 0) refuel(lines[node / FlatAst.NODE]);
+            Object completion = execute(body, environment);
+            if (completion != Interpreter.NORMAL) return completion;
+        }
+        return Interpreter.NORMAL;
+    }  //  end method loop
+
+    /**
+     * A loop the Resolver found counted, as Interpreter.countedLoop runs
+     * it: the limit is the right operand of the condition and the body the
+     * first statement of the loop's block, ahead of the increment.
+     */
+    private Object countedLoop(int node, Environment environment) {
+        int slot = nodes[node + 3] - 1;
+        if (environment.values[slot] != Environment.NUMBER) return loop(node, environment);
+
+        int limit = nodes[nodes[node + 1] + 2];
+        int body = lists[nodes[nodes[node + 2] + 2] + 1];
+        double counter = environment.numbers[slot];
+        for (;;) {
+            if (evaluate(limit, environment) != Environment.NUMBER) return loop(node, environment);
+            if (!(counter < interpreter.number)) return Interpreter.NORMAL;
+
+            if (--interpreter.fuel < 0) refuel(lines[node / FlatAst.NODE]);
+            Object completion = execute(body, environment);
+            if (completion != Interpreter.NORMAL) return completion;
+            environment.numbers[slot] = ++counter;
+        }
+    }  //  end method countedLoop
+
+    /**
+     * Call a callee, checking it and its arity. A tail call to a flat
+     * function only sets up its frame and leaves the call to
+     * FlatFunction.invoke.
+     */
+    private Object call(int node, Environment environment, boolean tail) {
+        Object callee = evaluate(nodes[node + 1], environment);
+        int arguments = nodes[node + 2];
+        int count = lists[arguments];
+
+        // flat functions get their arguments evaluated straight into their
+        // parameter slots, numbers and all
+        if (callee instanceof FlatFunction function && function.arity() == count) {
+            Environment frame = function.bind(interpreter);
+            for (int i = 0; i < count; i++) {
+                store(frame, i, evaluate(lists[arguments + 1 + i], environment));
+            }
+            if (tail) {
+                tailFunction = function;
+                tailFrame = frame;
+                return Interpreter.TAIL_CALL;
+            }
+            return function.invoke(this, frame);
+        }
+
+        // so do frame natives, in a frame from the pool
+        if (callee instanceof FrameNative function && function.arity() == count) {
+            Environment frame = interpreter.allocate(null, count);
+            for (int i = 0; i < count; i++) {
+                store(frame, i, evaluate(lists[arguments + 1 + i], environment));
+            }
+            try {
+                return interpreter.unbox(function.call(interpreter, frame));
+            } catch (RuntimeError e) {
+                if (e.token != null) throw e;
+                throw error(node, e.getMessage());
+            }
+        }
+
+        // anything else is a native, and natives only ever see Strings
+        Object[] values = new Object[count];
+        for (int i = 0; i < count; i++) {
+            Object value = interpreter.box(evaluate(lists[arguments + 1 + i], environment));
+            values[i] = Rope.flatten(value);
+        }
+
+        if (!(callee instanceof LoxCallable function))
+            throw error(node, "Can only call functions and classes.");
+        if (function.arity() != count)
+            throw error(node, "Expected " + function.arity() +
+                    "arguments, got " + count + " instead.");
+
+        try {
+            return interpreter.unbox(function.call(interpreter, values));
+        } catch (RuntimeError e) {
+            // a native does not know where it was called from
+            if (e.token != null) throw e;
+            throw error(node, e.getMessage());
+        }
+    }  //  end method call
+
+    private Object load(Environment environment, int slot) {
+        Object value = environment.values[slot];
+        if (value == Environment.NUMBER) interpreter.number = environment.numbers[slot];
+        return value;
+    }  //  end method load
+
+    private void store(Environment environment, int slot, Object value) {
+        // number first, see Environment
+        if (value == Environment.NUMBER) environment.numbers[slot] = interpreter.number;
+        environment.values[slot] = value;
+    }  //  end method store
+
+    void refuel(int line) {
+        interpreter.refuel(new Token(TokenType.EOF, "", null, line));
+    }  //  end method refuel
+
+    /**
+     * Runtime error at a node. Only the line of a runtime error is reported,
+     * so the token carries nothing else.
+     */
+    private RuntimeError error(int node, String message) {
+        return new RuntimeError(new Token(TokenType.EOF, "", null,
+                lines[node / FlatAst.NODE]), message);
+    }  //  end method error
+
+}  //  end class FlatInterpreter
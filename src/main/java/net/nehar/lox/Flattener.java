@@ -0,0 +1,170 @@
+package net.nehar.lox;
+
+import java.util.List;
+
+/**
+ * Lowers a resolved program into a FlatAst. Once flattened, the tree is no
+ * longer needed and can be collected.
+ */
+class Flattener implements
+        Expr.Visitor<Integer>, Stmt.Visitor<Integer> {
+
+    private final FlatAst ast = new FlatAst();
+
+    FlatAst flatten(List<Stmt> statements) {
+        ast.root = list(statements);
+        ast.trim();
+        return ast;
+    }  //  end method flatten
+
+    private int list(List<Stmt> statements) {
+        int[] elements = new int[statements.size()];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = flatten(statements.get(i));
+        }
+        return ast.list(elements);
+    }  //  end method list
+
+    private int flatten(Stmt stmt) {
+        return stmt.accept(this);
+    }  //  end method flatten(stmt)
+
+    private int flatten(Expr expr) {
+        return expr.accept(this);
+    }  //  end method flatten(expr)
+
+    @Override
+    public Integer visitBlockStmt(Stmt.Block stmt) {
+        int statements = list(stmt.statements);
+        return ast.node(FlatAst.BLOCK, stmt.scoped ? stmt.slots : -1, statements, 0, 0);
+    }  //  end method visitBlockStmt
+
+    @Override
+    public Integer visitExpressionStmt(Stmt.Expression stmt) {
+        return ast.node(FlatAst.EXPRESSION, flatten(stmt.expression), 0, 0, 0);
+    }  //  end method visitExpressionStmt
+
+    @Override
+    public Integer visitFunctionStmt(Stmt.Function stmt) {
+        int body = list(stmt.body);
+        int function = ast.function(stmt.name.lexeme, stmt.params.size(),
+                stmt.slots, body, stmt.name.line, stmt.leaf);
+        return ast.node(FlatAst.FUNCTION, stmt.slot, function, 0, stmt.name.line);
+    }  //  end method visitFunctionStmt
+
+    @Override
+    public Integer visitIfStmt(Stmt.If stmt) {
+        int condition = flatten(stmt.condition);
+        int thenBranch = flatten(stmt.thenBranch);
+        int elseBranch = stmt.elseBranch != null ? flatten(stmt.elseBranch) : -1;
+        return ast.node(FlatAst.IF, condition, thenBranch, elseBranch, 0);
+    }  //  end method visitIfStmt
+
+    @Override
+    public Integer visitPrintStmt(Stmt.Print stmt) {
+        return ast.node(FlatAst.PRINT, flatten(stmt.expression), 0, 0, 0);
+    }  //  end method visitPrintStmt
+
+    @Override
+    public Integer visitReturnStmt(Stmt.Return stmt) {
+        int value = stmt.value != null ? flatten(stmt.value) : -1;
+        return ast.node(FlatAst.RETURN, value, 0, 0, stmt.keyword.line);
+    }  //  end method visitReturnStmt
+
+    @Override
+    public Integer visitVarStmt(Stmt.Var stmt) {
+        int initializer = stmt.initializer != null ? flatten(stmt.initializer) : -1;
+        return ast.node(FlatAst.VAR, stmt.slot, initializer, 0, stmt.name.line);
+    }  //  end method visitVarStmt
+
+    @Override
+    public Integer visitWhileStmt(Stmt.While stmt) {
+        int condition = flatten(stmt.condition);
+        int body = flatten(stmt.body);
+        int counter = stmt.counter != null ? stmt.counter.slot + 1 : 0;
+        return ast.node(FlatAst.WHILE, condition, body, counter, stmt.keyword.line);
+    }  //  end method visitWhileStmt
+
+    @Override
+    public Integer visitAssignExpr(Expr.Assign expr) {
+        int value = flatten(expr.value);
+        int line = expr.name.line;
+        if (expr.depth == -1)
+            return ast.node(FlatAst.SET_GLOBAL, expr.slot,
+                    ast.constant(expr.name.lexeme), value, line);
+        return ast.node(FlatAst.SET_LOCAL, expr.depth, expr.slot, value, line);
+    }  //  end method visitAssignExpr
+
+    @Override
+    public Integer visitBinaryExpr(Expr.Binary expr) {
+        int left = flatten(expr.left);
+        int right = flatten(expr.right);
+        int kind = switch (expr.operator.type) {
+            case PLUS -> FlatAst.ADD;
+            case MINUS -> FlatAst.SUBTRACT;
+            case STAR -> FlatAst.MULTIPLY;
+            case SLASH -> FlatAst.DIVIDE;
+            case GREATER -> FlatAst.GREATER;
+            case GREATER_EQUAL -> FlatAst.GREATER_EQUAL;
+            case LESS -> FlatAst.LESS;
+            case LESS_EQUAL -> FlatAst.LESS_EQUAL;
+            case EQUAL_EQUAL -> FlatAst.EQUAL;
+            case BANG_EQUAL -> FlatAst.NOT_EQUAL;
+            default -> throw new IllegalArgumentException(
+                    "Cannot flatten " + expr.operator.type);
+        };
+        return ast.node(kind, left, right, 0, expr.operator.line);
+    }  //  end method visitBinaryExpr
+
+    @Override
+    public Integer visitCallExpr(Expr.Call expr) {
+        int callee = flatten(expr.callee);
+        int[] arguments = new int[expr.arguments.size()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = flatten(expr.arguments.get(i));
+        }
+        return ast.node(FlatAst.CALL, callee, ast.list(arguments), 0, expr.paren.line);
+    }  //  end method visitCallExpr
+
+    @Override
+    public Integer visitGroupingExpr(Expr.Grouping expr) {
+        // grouping only matters to the parser
+        return flatten(expr.expression);
+    }  //  end method visitGroupingExpr
+
+    @Override
+    public Integer visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.value;
+        if (value == null) return ast.node(FlatAst.NIL, 0, 0, 0, 0);
+        if (value instanceof Boolean)
+            return ast.node((boolean) value ? FlatAst.TRUE : FlatAst.FALSE, 0, 0, 0, 0);
+        if (value instanceof Double)
+            return ast.node(FlatAst.NUMBER, ast.number((double) value), 0, 0, 0);
+        return ast.node(FlatAst.STRING, ast.constant(value), 0, 0, 0);
+    }  //  end method visitLiteralExpr
+
+    @Override
+    public Integer visitLogicalExpr(Expr.Logical expr) {
+        int left = flatten(expr.left);
+        int right = flatten(expr.right);
+        int kind = expr.operator.type == TokenType.OR ? FlatAst.OR : FlatAst.AND;
+        return ast.node(kind, left, right, 0, expr.operator.line);
+    }  //  end method visitLogicalExpr
+
+    @Override
+    public Integer visitUnaryExpr(Expr.Unary expr) {
+        int right = flatten(expr.right);
+        int kind = expr.operator.type == TokenType.MINUS ? FlatAst.NEGATE : FlatAst.NOT;
+        return ast.node(kind, right, 0, 0, expr.operator.line);
+    }  //  end method visitUnaryExpr
+
+    @Override
+    public Integer visitVariableExpr(Expr.Variable expr) {
+        int line = expr.name.line;
+        if (expr.depth == -1)
+            return ast.node(FlatAst.GET_GLOBAL, expr.slot,
+                    ast.constant(expr.name.lexeme), 0, line);
+        return ast.node(FlatAst.GET_LOCAL, expr.depth, expr.slot, 0, line);
+    }  //  end method visitVariableExpr
+
+}  //  end class Flattener
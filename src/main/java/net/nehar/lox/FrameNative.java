@@ -0,0 +1,66 @@
+package net.nehar.lox;
+
+/**
+ * A function implemented in Java that takes its arguments the way a Lox
+ * function does, in the slots of a frame, so a number argument reaches it
+ * in the number lane rather than boxed.
+ *
+ * The interpreters' call sites fill a frame from Interpreter.allocate and
+ * call it directly; the boxed call of LoxCallable is left for callers that
+ * only have an argument array, and copies it into a frame.
+ */
+final class FrameNative implements LoxCallable {
+
+    @FunctionalInterface
+    interface Body {
+        Object call(Interpreter interpreter, Environment arguments);
+    }  //  end interface Body
+
+    private final int arity;
+    private final Body body;
+
+    FrameNative(int arity, Body body) {
+        this.arity = arity;
+        this.body = body;
+    }
+
+    @Override
+    public int arity() {
+        return arity;
+    }  //  end method arity
+
+    /**
+     * Call with the arguments in the first arity() slots of a frame made by
+     * Interpreter.allocate, which gets the frame back afterwards even when
+     * the body throws, since the REPL keeps its interpreter after an error.
+     * A number may come back as Environment.NUMBER, in the number register.
+     */
+    Object call(Interpreter interpreter, Environment arguments) {
+        // natives only ever see Strings
+        Object[] values = arguments.values;
+        for (int i = 0; i < arity; i++) {
+            if (values[i] instanceof Rope rope) values[i] = rope.toString();
+        }
+
+        try {
+            return body.call(interpreter, arguments);
+        } finally {
+            interpreter.recycle(arguments);
+        }
+    }  //  end method call(frame)
+
+    @Override
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        Environment frame = interpreter.allocate(null, arity);
+        for (int i = 0; i < arity; i++) {
+            frame.set(i, arguments[i]);
+        }
+        return call(interpreter, frame);
+    }  //  end method call
+
+    @Override
+    public String toString() {
+        return "<native fn>";
+    }  //  end method toString
+
+}  //  end class FrameNative
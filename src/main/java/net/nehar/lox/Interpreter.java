@@ -1,19 +1,104 @@
 package net.nehar.lox;
 
-import java.util.ArrayList;
+import java.io.PrintStream;
+import java.util.Arrays;
 import java.util.List;
 
 
+/**
+ * Tree-walking interpreter.
+ *
+ * Numbers are kept unboxed: an expression evaluating to a number returns
+ * the Environment.NUMBER marker and leaves the value in the number
+ * register, which the caller must read before evaluating anything else.
+ * Values are only boxed on their way to natives and other callers of
+ * LoxCallable.call.
+ *
+ * Statements return a completion: NORMAL when control falls through to the
+ * next statement, or the value of an executed return, which then unwinds
+ * through the enclosing blocks and loops back to the call.
+ *
+ * A return of a call to a Lox function is a tail call: instead of making
+ * the call, the return completes with TAIL_CALL and leaves the callee and
+ * its filled in frame in tailFunction and tailFrame, and LoxFunction.invoke
+ * runs it in place of the returning function. Tail recursion therefore
+ * runs in constant Java stack.
+ *
+ * An Interpreter is one execution's state and is used by one thread at a
+ * time. Any number of them may run the same resolved tree at once, each on
+ * its own copy of the globals the tree was resolved against.
+ */
 public class Interpreter implements
-        Expr.Visitor<Object>, Stmt.Visitor<Void> {
+        Expr.Visitor<Object>, Stmt.Visitor<Object> {
+
+    // completion of a statement that did not return
+    static final Object NORMAL = new Object();
+
+    // completion of a return whose call is left to LoxFunction.invoke
+    static final Object TAIL_CALL = new Object();
+
+    private static final Object[] NO_ARGUMENTS = {};
 
     //global scope
-    final Environment globals = new Environment();
+    final Environment globals;
 
     // current scope
-    private Environment environment = globals;
+    private Environment environment;
+
+    // where print writes and errors are reported
+    final Output out;
+    private final ErrorReporter reporter;
+
+    // let Binary and Unary nodes specialize on the operand types they see
+    boolean specializing = false;
+
+    // compile hot functions with the Jit
+    boolean compiling = false;
+
+    // value of the last expression that evaluated to Environment.NUMBER
+    double number;
+
+    // pending tail call, valid right after a TAIL_CALL completion
+    LoxFunction tailFunction;
+    Environment tailFrame;
+
+    // steps left in the current slice of the budget, counted down by loop
+    // iterations and calls; never runs out when there is no budget
+    long fuel = Long.MAX_VALUE;
+    private Budget budget = null;
+
+    // scopes allocated for calls and blocks, for Events.Execution
+    long environments = 0;
+
+    // frames of returned leaf calls, for the next calls to reuse
+    private Environment[] spare = new Environment[16];
+    private int spareCount = 0;
+
+    // shadow stack of the Lox functions being run, only kept when profiling
+    Profiler.Stack stack = null;
+    private Profiler profiler = null;
+
+    Interpreter(ErrorReporter reporter) {
+        this(newGlobals(), System.out, reporter);
+    }  //  end constructor
+
+    Interpreter(Environment globals, PrintStream out, ErrorReporter reporter) {
+        this(globals, new Output(out), reporter);
+    }  //  end constructor(globals, out, reporter)
+
+    private Interpreter(Environment globals, Output out, ErrorReporter reporter) {
+        this.globals = globals;
+        this.environment = globals;
+        this.out = out;
+        this.reporter = reporter;
+    }  //  end constructor(globals, output, reporter)
+
+    /**
+     * Global scope holding the natives, for programs to be resolved against.
+     */
+    static Environment newGlobals() {
+        Environment globals = new Environment();
 
-    Interpreter(){
         // native clock function
         globals.define("clock", new LoxCallable() {
             @Override
@@ -23,7 +108,7 @@ public class Interpreter implements
 
             @Override
             public Object call(Interpreter interpreter,
-                               List<Object> arguments) {
+                               Object[] arguments) {
                 return (double)System.currentTimeMillis() / 1000.0;
             }
 
@@ -32,35 +117,117 @@ public class Interpreter implements
                 return "<native fn>";
             }
         });
-    }  //  end method Interpret
 
-    void interpret(List<Stmt> statements) {
+        Concurrency.define(globals);
+        LoxList.define(globals);
+        return globals;
+    }  //  end method newGlobals
+
+    /**
+     * Interpreter for a task spawned by this one: same globals, output and
+     * options, but its own scope, number register and pending tail call.
+     */
+    Interpreter fork() {
+        Interpreter task = new Interpreter(globals, out, reporter);
+        task.specializing = specializing;
+        task.compiling = compiling;
+        if (budget != null) task.meter(budget);
+        if (profiler != null) task.profile(profiler, "<task>");
+        return task;
+    }  //  end method fork
+
+    /**
+     * Keep a shadow stack for profiler to sample from now on, its outermost
+     * frame named root.
+     */
+    void profile(Profiler profiler, String root) {
+        this.profiler = profiler;
+        this.stack = profiler.attach(root);
+    }  //  end method profile
+
+    /**
+     * Done running, stop being sampled.
+     */
+    void finish() {
+        if (profiler != null) profiler.detach(stack);
+    }  //  end method finish
+
+    /**
+     * Run under a budget from now on.
+     */
+    void meter(Budget budget) {
+        this.budget = budget;
+        this.fuel = 0;
+    }  //  end method meter
+
+    /**
+     * Budget this interpreter runs under, null if it is not metered.
+     */
+    Budget budget() {
+        return budget;
+    }  //  end method budget
+
+    /**
+     * Called when fuel runs out: check the budget and take the next slice,
+     * the step being taken included.
+     */
+    void refuel(Token where) {
+        fuel = budget.slice(where) - 1;
+    }  //  end method refuel
+
+    /**
+     * @return false if the program stopped on a runtime error
+     */
+    boolean interpret(List<Stmt> statements) {
+        Events.Execution event = Events.execution(this);
         try {
             for (Stmt statement: statements)
                 execute(statement);
+            return true;
         } catch (RuntimeError error) {
-            Lox.runtimeError(error);
+            out.flush();
+            reporter.runtimeError(error);
+            return false;
+        } finally {
+            out.flush();
+            if (event != null) event.end(this);
         }
     }  //  end method interpret
 
-    private void execute(Stmt statement) {
-        statement.accept(this);
+    /**
+     * Report an error that stopped the program, after what it printed.
+     */
+    void reportRuntimeError(RuntimeError error) {
+        out.flush();
+        reporter.runtimeError(error);
+    }  //  end method reportRuntimeError
+
+    private Object execute(Stmt statement) {
+        return statement.accept(this);
     }  //  end method execute
 
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
-        return null;
+    public Object visitBlockStmt(Stmt.Block stmt) {
+        // an unscoped block's locals have slots in the current environment
+        if (!stmt.scoped) return executeBlock(stmt.statements, environment);
+
+        environments++;
+        return executeBlock(stmt.statements, new Environment(environment, stmt.slots));
     }  //  end method visitBlockStmt
 
-    void executeBlock(List<Stmt> statements, Environment environment) {
+    /**
+     * @return NORMAL, or the returned value if a return was executed
+     */
+    Object executeBlock(List<Stmt> statements, Environment environment) {
         Environment previous = this.environment;
 
         try {
             this.environment = environment;
             for (Stmt statement : statements) {
-                execute(statement);
+                Object completion = execute(statement);
+                if (completion != NORMAL) return completion;
             }
+            return NORMAL;
         } finally {
             this.environment = previous;
         }
@@ -68,6 +235,10 @@ public class Interpreter implements
 
     @Override
     public Object visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value instanceof Double) {
+            number = (double) expr.value;
+            return Environment.NUMBER;
+        }
         return expr.value;
     }  //  end method visitLiteralExpr
 
@@ -93,91 +264,265 @@ public class Interpreter implements
     public Object visitUnaryExpr(Expr.Unary expr) {
         Object right = evaluate(expr.right);
 
+        if (specializing) return specializedUnary(expr, right);
+        return unary(expr, right);
+    }  //  end method visitUnaryExpr
+
+    private Object unary(Expr.Unary expr, Object right) {
         return switch (expr.operator.type) {
             case MINUS -> {
                 checkNumberOperand(expr.operator, right);
-                yield -(double) right;
+                number = -number;
+                yield Environment.NUMBER;
             }
 
             case BANG ->  !isTruthy(right);
             default -> null;
         };
-    }  //  end method visitUnaryExpr
+    }  //  end method unary
+
+    private Object specializedUnary(Expr.Unary expr, Object right) {
+        switch (expr.specialization) {
+            case Specialization.NUMBER_NEGATE:
+                if (right == Environment.NUMBER) {
+                    number = -number;
+                    return Environment.NUMBER;
+                }
+                break;
+            case Specialization.BOOLEAN_NOT:
+                if (right instanceof Boolean) return !(boolean) right;
+                break;
+            case Specialization.GENERIC:
+                return unary(expr, right);
+            default:
+                expr.specialization = Specialization.unary(expr.operator.type, right);
+                return unary(expr, right);
+        }
+
+        // operand type changed, deoptimize
+        expr.specialization = Specialization.GENERIC;
+        return unary(expr, right);
+    }  //  end method specializedUnary
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return environment.get(expr.name);
+        if (expr.depth == -1) {
+            Object value = load(globals, expr.slot);
+            if (value == Environment.UNDEFINED)
+                throw new RuntimeError(expr.name,
+                        "Undefined variable " + expr.name.lexeme + ".");
+            return value;
+        }
+        return load(environment.ancestor(expr.depth), expr.slot);
     }  //  end method visitVariableExpr
 
     @Override
     public Object visitCallExpr( Expr.Call expr) {
-        Object callee = evaluate(expr.callee);
+        return call(expr, evaluate(expr.callee));
+    }  //  end method visitCallExpr
+
+    private Object call(Expr.Call expr, Object callee) {
+        if (!linked(expr, callee))
+            return call(expr.paren, callee, arguments(expr));
+
+        // Lox functions get their arguments evaluated straight into their
+        // parameter slots, numbers and all
+        if (callee instanceof LoxFunction function)
+            return function.invoke(this, frame(function, expr));
+
+        // and so do frame natives, in a frame from the pool
+        if (callee instanceof FrameNative function) {
+            Environment frame = allocate(null, function.arity());
+            for (int i = 0; i < expr.arguments.size(); i++) {
+                store(frame, i, evaluate(expr.arguments.get(i)));
+            }
+            return callNative(expr.paren, function, frame);
+        }
+
+        return callNative(expr.paren, (LoxCallable) callee, arguments(expr));
+    }  //  end method call
 
-        List<Object> arguments = new ArrayList<>();
-        for (Expr argument: expr.arguments) {
-            arguments.add(evaluate(argument));
+    private Environment frame(LoxFunction function, Expr.Call expr) {
+        Environment frame = function.bind(this);
+        for (int i = 0; i < expr.arguments.size(); i++) {
+            store(frame, i, evaluate(expr.arguments.get(i)));
         }
+        return frame;
+    }  //  end method frame
+
+    /**
+     * Frame of the given size under closure, a spare one if there is one
+     * big enough.
+     */
+    Environment allocate(Environment closure, int slots) {
+        if (spareCount > 0 && spare[spareCount - 1].values.length >= slots) {
+            Environment frame = spare[--spareCount];
+            spare[spareCount] = null;
+            frame.enclosing = closure;
+            return frame;
+        }
+        environments++;
+        return new Environment(closure, slots);
+    }  //  end method allocate
+
+    /**
+     * Give back the frame of a returned call that nothing can still reach,
+     * for allocate to hand out again.
+     */
+    void recycle(Environment frame) {
+        if (spareCount == spare.length) return;
+        Arrays.fill(frame.values, null);
+        spare[spareCount++] = frame;
+    }  //  end method recycle
+
+    Object tailCall(LoxFunction function, Environment frame) {
+        tailFunction = function;
+        tailFrame = frame;
+        return TAIL_CALL;
+    }  //  end method tailCall
+
+    private Object[] arguments(Expr.Call expr) {
+        if (expr.arguments.isEmpty()) return NO_ARGUMENTS;
+
+        Object[] arguments = new Object[expr.arguments.size()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = box(evaluate(expr.arguments.get(i)));
+        }
+        return arguments;
+    }  //  end method arguments
+
+    /**
+     * Whether a callee can be called with the call site's argument count,
+     * caching the answer at the site.
+     *
+     * Lox functions are cached by declaration, so every closure made from
+     * one declaration, in this run or a concurrent run of the same script,
+     * hits the same entry.
+     */
+    static boolean linked(Expr.Call expr, Object callee) {
+        Object key = callee instanceof LoxFunction function
+                ? function.declaration
+                : callee;
+        if (key == expr.target) return true;
+
+        if (callee instanceof LoxCallable function &&
+                function.arity() == expr.arguments.size()) {
+            expr.target = key;
+            return true;
+        }
+        return false;
+    }  //  end method linked
 
+    /**
+     * Call any callable with boxed arguments, checking the callee and arity.
+     */
+    Object call(Token paren, Object callee, Object[] arguments) {
         // check type to avoid thing like "foo"() etc
         if (!(callee instanceof LoxCallable)) {
-            throw new RuntimeError(expr.paren,
+            throw new RuntimeError(paren,
                     "Can only call functions and classes.");
         }
 
         LoxCallable function = (LoxCallable)callee;
 
         // check arity
-        if (arguments.size() != function.arity()) {
-            throw new RuntimeError(expr.paren, "Expected " +
+        if (arguments.length != function.arity()) {
+            throw new RuntimeError(paren, "Expected " +
                     function.arity() + "arguments, got " +
-                    arguments.size() + " instead.");
+                    arguments.length + " instead.");
         }
 
-        return function.call(this, arguments);
+        return callNative(paren, function, arguments);
 
-    }  //  end method visitCallExpr
+    }  //  end method call
+
+    /**
+     * Call a frame native on arguments in a frame from allocate, giving the
+     * call site's token to errors it raises.
+     */
+    Object callNative(Token paren, FrameNative function, Environment arguments) {
+        try {
+            return unbox(function.call(this, arguments));
+        } catch (RuntimeError error) {
+            if (error.token != null) throw error;
+            throw new RuntimeError(paren, error.getMessage());
+        }
+    }  //  end method callNative(frame)
+
+    /**
+     * Call a callable other than through a Lox function's frame, giving the
+     * call site's token to errors raised by natives.
+     */
+    Object callNative(Token paren, LoxCallable function, Object[] arguments) {
+        // natives only ever see Strings
+        if (!(function instanceof LoxFunction) && !(function instanceof FlatFunction)) {
+            for (int i = 0; i < arguments.length; i++) {
+                arguments[i] = Rope.flatten(arguments[i]);
+            }
+        }
+
+        try {
+            return unbox(function.call(this, arguments));
+        } catch (RuntimeError error) {
+            if (error.token != null) throw error;
+            throw new RuntimeError(paren, error.getMessage());
+        }
+    }  //  end method callNative
 
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
         Object left = evaluate(expr.left);
+        double l = number;
         Object right = evaluate(expr.right);
+        double r = number;
+
+        if (specializing) return specializedBinary(expr, left, l, right, r);
+        return binary(expr, left, l, right, r);
+    }  //  end method visitBinaryExpr
 
+    private Object binary(Expr.Binary expr,
+                          Object left, double l, Object right, double r) {
         return switch (expr.operator.type) {
             case GREATER -> {
                 checkNumberOperands(expr.operator, left, right);
-                yield (double)left > (double)right;
+                yield l > r;
             }
             case GREATER_EQUAL -> {
                 checkNumberOperands(expr.operator, left, right);
-                yield (double)left >= (double)right;
+                yield l >= r;
             }
             case LESS -> {
                 checkNumberOperands(expr.operator, left, right);
-                yield (double) left < (double) right;
+                yield l < r;
             }
             case LESS_EQUAL -> {
                 checkNumberOperands(expr.operator, left, right);
-                yield (double)left <= (double)right;
+                yield l <= r;
             }
-            case BANG_EQUAL -> !isEqual(left, right);
-            case EQUAL_EQUAL -> isEqual(left, right);
+            case BANG_EQUAL -> !isEqual(left, l, right, r);
+            case EQUAL_EQUAL -> isEqual(left, l, right, r);
             case MINUS -> {
                 checkNumberOperands(expr.operator, left, right);
-                yield (double)left - (double) right;
+                number = l - r;
+                yield Environment.NUMBER;
             }
             case SLASH -> {
                 checkNumberOperands(expr.operator, left, right);
-                yield (double)left / (double) right;
+                number = l / r;
+                yield Environment.NUMBER;
             }
             case STAR -> {
                 checkNumberOperands(expr.operator, left, right);
-                yield (double)left * (double) right;
+                number = l * r;
+                yield Environment.NUMBER;
             }
             case PLUS -> {
-                if (left instanceof Double && right instanceof Double)
-                    yield  (double)left + (double)right;
-                if (left instanceof String && right instanceof String)
-                    yield (String)left + (String)right;
+                if (left == Environment.NUMBER && right == Environment.NUMBER) {
+                    number = l + r;
+                    yield Environment.NUMBER;
+                }
+                if (Rope.isString(left) && Rope.isString(right))
+                    yield Rope.concat(left, right);
                 throw new RuntimeError(expr.operator,
                         "Operands must be two numbers or strings.");
             }
@@ -185,88 +530,261 @@ public class Interpreter implements
             default -> null;
         };
 
-    }  //  end method visitBinaryExpr
+    }  //  end method binary
+
+    /**
+     * Evaluate a binary operator through the node's specialization, which
+     * skips the operator switch and all but one type check per operand.
+     */
+    private Object specializedBinary(Expr.Binary expr,
+                                     Object left, double l, Object right, double r) {
+        switch (expr.specialization) {
+            case Specialization.NUMBER_ADD:
+                if (left == Environment.NUMBER && right == Environment.NUMBER) {
+                    number = l + r;
+                    return Environment.NUMBER;
+                }
+                break;
+            case Specialization.NUMBER_SUBTRACT:
+                if (left == Environment.NUMBER && right == Environment.NUMBER) {
+                    number = l - r;
+                    return Environment.NUMBER;
+                }
+                break;
+            case Specialization.NUMBER_MULTIPLY:
+                if (left == Environment.NUMBER && right == Environment.NUMBER) {
+                    number = l * r;
+                    return Environment.NUMBER;
+                }
+                break;
+            case Specialization.NUMBER_DIVIDE:
+                if (left == Environment.NUMBER && right == Environment.NUMBER) {
+                    number = l / r;
+                    return Environment.NUMBER;
+                }
+                break;
+            case Specialization.NUMBER_GREATER:
+                if (left == Environment.NUMBER && right == Environment.NUMBER)
+                    return l > r;
+                break;
+            case Specialization.NUMBER_GREATER_EQUAL:
+                if (left == Environment.NUMBER && right == Environment.NUMBER)
+                    return l >= r;
+                break;
+            case Specialization.NUMBER_LESS:
+                if (left == Environment.NUMBER && right == Environment.NUMBER)
+                    return l < r;
+                break;
+            case Specialization.NUMBER_LESS_EQUAL:
+                if (left == Environment.NUMBER && right == Environment.NUMBER)
+                    return l <= r;
+                break;
+            case Specialization.NUMBER_EQUAL:
+                if (left == Environment.NUMBER && right == Environment.NUMBER)
+                    return isEqual(l, r);
+                break;
+            case Specialization.NUMBER_NOT_EQUAL:
+                if (left == Environment.NUMBER && right == Environment.NUMBER)
+                    return !isEqual(l, r);
+                break;
+            case Specialization.STRING_ADD:
+                if (Rope.isString(left) && Rope.isString(right))
+                    return Rope.concat(left, right);
+                break;
+            case Specialization.STRING_EQUAL:
+                if (Rope.isString(left) && Rope.isString(right))
+                    return left.toString().equals(right.toString());
+                break;
+            case Specialization.STRING_NOT_EQUAL:
+                if (Rope.isString(left) && Rope.isString(right))
+                    return !left.toString().equals(right.toString());
+                break;
+            case Specialization.GENERIC:
+                return binary(expr, left, l, right, r);
+            default:
+                expr.specialization =
+                        Specialization.binary(expr.operator.type, left, right);
+                return binary(expr, left, l, right, r);
+        }
+
+        // operand types changed, deoptimize
+        expr.specialization = Specialization.GENERIC;
+        return binary(expr, left, l, right, r);
+    }  //  end method specializedBinary
 
     private Object evaluate(Expr expr) {
         return expr.accept(this);
     }  //  end method evaluate
 
     @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt) {
+    public Object visitExpressionStmt(Stmt.Expression stmt) {
         evaluate(stmt.expression);
-        return null;
+        return NORMAL;
     }  //  end method visitExpressionStmt
 
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt) {
+    public Object visitFunctionStmt(Stmt.Function stmt) {
         LoxFunction function = new LoxFunction(stmt, environment);
-        environment.define(stmt.name.lexeme, function);
-        return null;
+        environment.values[stmt.slot] = function;
+        return NORMAL;
     }  //  end method visitFunctionStmt
 
     @Override
-    public Void visitIfStmt(Stmt.If stmt) {
+    public Object visitIfStmt(Stmt.If stmt) {
         if (isTruthy(evaluate(stmt.condition)))
-            execute(stmt.thenBranch);
+            return execute(stmt.thenBranch);
         else if (stmt.elseBranch != null)
-            execute(stmt.elseBranch);
+            return execute(stmt.elseBranch);
 
-        return null;
+        return NORMAL;
     }  //  end method visitIfStmt
 
     @Override
-    public Void visitPrintStmt(Stmt.Print stmt) {
-        Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
-        return null;
+    public Object visitPrintStmt(Stmt.Print stmt) {
+        print(evaluate(stmt.expression));
+        return NORMAL;
     }  //  end method visitPrintStmt
 
-    @Override
-    public Void visitReturnStmt(Stmt.Return stmt) {
-        Object value = null;
+    /**
+     * Print the value just evaluated, numbers straight from the register.
+     */
+    void print(Object value) {
+        if (value == Environment.NUMBER) out.println(number);
+        else out.println(value);
+    }  //  end method print
 
-        if (stmt.value != null) value = evaluate(stmt.value);
+    @Override
+    public Object visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) return null;
+
+        if (stmt.value instanceof Expr.Call call) {
+            Object callee = evaluate(call.callee);
+            if (callee instanceof LoxFunction function && linked(call, callee))
+                return tailCall(function, frame(function, call));
+            return call(call, callee);
+        }
 
-        throw new Return(value);
+        // a returned number stays in the register on the way out
+        return evaluate(stmt.value);
     }  //  end method visitReturnStatement
 
     @Override
-    public Void visitWhileStmt(Stmt.While stmt) {
+    public Object visitWhileStmt(Stmt.While stmt) {
+        if (stmt.counter != null) return countedLoop(stmt);
+        return loop(stmt);
+    }  //  en method visitWhileStmt
+
+    private Object loop(Stmt.While stmt) {
         while(isTruthy(evaluate(stmt.condition))) {
-            execute(stmt.body);
+            if (--fuel < 0) refuel(stmt.keyword);
+            Object completion = execute(stmt.body);
+            if (completion != NORMAL) return completion;
         }
-        return null;
-    }  //  en method visitWhileStmt
+        return NORMAL;
+    }  //  end method loop
+
+    /**
+     * Run a loop the Resolver found counted: the counter is a double here,
+     * compared against the limit and stepped without going through the
+     * condition and increment nodes, and written to its slot for the body.
+     * Anything that is not a number leaves the rest to the ordinary loop,
+     * which reports the error.
+     */
+    private Object countedLoop(Stmt.While stmt) {
+        Environment environment = this.environment;
+        int slot = stmt.counter.slot;
+        if (environment.values[slot] != Environment.NUMBER) return loop(stmt);
+
+        Expr limit = ((Expr.Binary) stmt.condition).right;
+        Stmt body = ((Stmt.Block) stmt.body).statements.get(0);
+        double counter = environment.numbers[slot];
+        for (;;) {
+            if (evaluate(limit) != Environment.NUMBER) return loop(stmt);
+            if (!(counter < number)) return NORMAL;
+
+            if (--fuel < 0) refuel(stmt.keyword);
+            Object completion = execute(body);
+            if (completion != NORMAL) return completion;
+            environment.numbers[slot] = ++counter;
+        }
+    }  //  end method countedLoop
 
     @Override
-    public Void visitVarStmt(Stmt.Var stmt) {
+    public Object visitVarStmt(Stmt.Var stmt) {
 
         Object value = (stmt.initializer != null) ? evaluate(stmt.initializer):null;
-        environment.define(stmt.name.lexeme, value);
+        store(environment, stmt.slot, value);
 
-        return null;
+        return NORMAL;
     }  //  end method visitVarStmt
 
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
-        environment.assign(expr.name, value);
+        if (expr.depth == -1) {
+            if (globals.values[expr.slot] == Environment.UNDEFINED)
+                throw new RuntimeError(expr.name,
+                        "Undefined variable " + expr.name.lexeme + ".");
+            store(globals, expr.slot, value);
+        } else {
+            store(environment.ancestor(expr.depth), expr.slot, value);
+        }
         return value;
     }  //  end method visitAssignExpr
 
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         if (object == null) return false;
         if (object instanceof Boolean) return (boolean) object;
         return true;
     }  //  end method isTruthy
 
-    private boolean isEqual(Object a, Object b) {
+    static boolean isEqual(Object a, double an, Object b, double bn) {
+        if (a == Environment.NUMBER)
+            return b == Environment.NUMBER && isEqual(an, bn);
+
         if (a == null && b == null) return true;
         if (a == null) return false;
+        if (a instanceof Rope || b instanceof Rope)
+            return Rope.isString(a) && Rope.isString(b) && a.toString().equals(b.toString());
         return a.equals(b);
     }  //  end method isEqual
 
-    private String stringify(Object object) {
+    private static boolean isEqual(double a, double b) {
+        // same as Double.equals, so NaN == NaN and 0 != -0
+        return Double.doubleToLongBits(a) == Double.doubleToLongBits(b);
+    }  //  end method isEqual(double, double)
+
+    private Object load(Environment environment, int slot) {
+        Object value = environment.values[slot];
+        if (value == Environment.NUMBER) number = environment.numbers[slot];
+        return value;
+    }  //  end method load
+
+    private void store(Environment environment, int slot, Object value) {
+        // number first, see Environment
+        if (value == Environment.NUMBER) environment.numbers[slot] = number;
+        environment.values[slot] = value;
+    }  //  end method store
+
+    /**
+     * Box the value just evaluated, for code that cannot take the register.
+     */
+    Object box(Object value) {
+        return value == Environment.NUMBER ? (Object) number : value;
+    }  //  end method box
+
+    /**
+     * Turn a value from outside the interpreter into register form.
+     */
+    Object unbox(Object value) {
+        if (value instanceof Double) {
+            number = (double) value;
+            return Environment.NUMBER;
+        }
+        return value;
+    }  //  end method unbox
+
+    static String stringify(Object object) {
         if (object == null) return "nil";
 
         if (object instanceof Double) {
@@ -282,13 +800,13 @@ public class Interpreter implements
 
     }  //  end method stringify
 
-    private void checkNumberOperand(Token operator, Object operand) {
-        if (operand instanceof Double) return;
+    static void checkNumberOperand(Token operator, Object operand) {
+        if (operand == Environment.NUMBER) return;
         throw new RuntimeError(operator, "Operand must be a number.");
     }  //  end method checkNumberOperand
 
-    private void checkNumberOperands(Token operator, Object left, Object right) {
-        if (left instanceof Double && right instanceof Double) return;
+    static void checkNumberOperands(Token operator, Object left, Object right) {
+        if (left == Environment.NUMBER && right == Environment.NUMBER) return;
         throw new RuntimeError(operator, "Operand must be numbers.");
     }
 }  //  end class Interpreter
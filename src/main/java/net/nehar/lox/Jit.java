@@ -0,0 +1,458 @@
+package net.nehar.lox;
+
+import java.util.List;
+
+/**
+ * Second execution tier for hot functions.
+ *
+ * Once a function declaration has been called HOT_CALLS times, its body is
+ * compiled into a tree of closures, one per AST node, with operators,
+ * variable depths and slots and constant values resolved once up front.
+ * This is closure compilation, not code generation: running a compiled
+ * body skips the visitor dispatch, the field reads of the tree and the
+ * switches on operators and node kinds, but it is still a walk of a tree.
+ *
+ * The closures of a kind of node share one class for every function, as
+ * a lambda expression gets one class however many closures it makes, so
+ * the calls from a node to its children are megamorphic and HotSpot
+ * does not inline across them.
+ *
+ * Compiled code follows the interpreter's conventions: numbers travel as
+ * Environment.NUMBER with the value in the interpreter's number register.
+ * Statements return the same completions as the interpreter's statement
+ * visitors.
+ */
+final class Jit {
+
+    private Jit() {}
+
+    // calls of a declaration before its body is compiled
+    static final int HOT_CALLS = 1000;
+
+    @FunctionalInterface
+    interface Node {
+        Object run(Interpreter interpreter, Environment environment);
+    }  //  end interface Node
+
+    /**
+     * Compile a function body. The resulting node runs in the scope made by
+     * LoxFunction.bind and returns the function's return value.
+     */
+    static Node compile(Stmt.Function function) {
+        Node[] body = statements(function.body);
+        return (interpreter, environment) -> {
+            for (Node statement : body) {
+                Object completion = statement.run(interpreter, environment);
+                if (completion != Interpreter.NORMAL) return completion;
+            }
+            return null;
+        };
+    }  //  end method compile
+
+    private static Node[] statements(List<Stmt> statements) {
+        Node[] nodes = new Node[statements.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = statement(statements.get(i));
+        }
+        return nodes;
+    }  //  end method statements
+
+    private static Node statement(Stmt stmt) {
+        if (stmt instanceof Stmt.Expression s) {
+            Node expression = expression(s.expression);
+            return (interpreter, environment) -> {
+                expression.run(interpreter, environment);
+                return Interpreter.NORMAL;
+            };
+        }
+
+        if (stmt instanceof Stmt.Print s) {
+            Node expression = expression(s.expression);
+            return (interpreter, environment) -> {
+                Object value = expression.run(interpreter, environment);
+                interpreter.print(value);
+                return Interpreter.NORMAL;
+            };
+        }
+
+        if (stmt instanceof Stmt.Var s) {
+            int slot = s.slot;
+            if (s.initializer == null) {
+                return (interpreter, environment) -> {
+                    environment.values[slot] = null;
+                    return Interpreter.NORMAL;
+                };
+            }
+            Node initializer = expression(s.initializer);
+            return (interpreter, environment) -> {
+                store(interpreter, environment, slot,
+                        initializer.run(interpreter, environment));
+                return Interpreter.NORMAL;
+            };
+        }
+
+        if (stmt instanceof Stmt.Block s) {
+            Node[] statements = statements(s.statements);
+            if (!s.scoped) {
+                return (interpreter, environment) -> {
+                    for (Node statement : statements) {
+                        Object completion = statement.run(interpreter, environment);
+                        if (completion != Interpreter.NORMAL) return completion;
+                    }
+                    return Interpreter.NORMAL;
+                };
+            }
+
+            int slots = s.slots;
+            return (interpreter, environment) -> {
+                Environment scope = new Environment(environment, slots);
+                interpreter.environments++;
+                for (Node statement : statements) {
+                    Object completion = statement.run(interpreter, scope);
+                    if (completion != Interpreter.NORMAL) return completion;
+                }
+                return Interpreter.NORMAL;
+            };
+        }
+
+        if (stmt instanceof Stmt.If s) {
+            Node condition = expression(s.condition);
+            Node thenBranch = statement(s.thenBranch);
+            if (s.elseBranch == null) {
+                return (interpreter, environment) -> {
+                    if (Interpreter.isTruthy(condition.run(interpreter, environment)))
+                        return thenBranch.run(interpreter, environment);
+                    return Interpreter.NORMAL;
+                };
+            }
+            Node elseBranch = statement(s.elseBranch);
+            return (interpreter, environment) -> {
+                if (Interpreter.isTruthy(condition.run(interpreter, environment)))
+                    return thenBranch.run(interpreter, environment);
+                return elseBranch.run(interpreter, environment);
+            };
+        }
+
+        if (stmt instanceof Stmt.While s) {
+            Node condition = expression(s.condition);
+            Node body = statement(s.body);
+            Token keyword = s.keyword;
+            Node loop = (interpreter, environment) -> {
+                while (Interpreter.isTruthy(condition.run(interpreter, environment))) {
+                    if (--interpreter.fuel < 0) interpreter.refuel(keyword);
+                    Object completion = body.run(interpreter, environment);
+                    if (completion != Interpreter.NORMAL) return completion;
+                }
+                return Interpreter.NORMAL;
+            };
+            return s.counter != null ? countedLoop(s, loop) : loop;
+        }
+
+        if (stmt instanceof Stmt.Return s) {
+            if (s.value == null) return (interpreter, environment) -> null;
+            if (s.value instanceof Expr.Call call) return call(call, true);
+            return expression(s.value);
+        }
+
+        if (stmt instanceof Stmt.Function s) {
+            int slot = s.slot;
+            return (interpreter, environment) -> {
+                environment.values[slot] = new LoxFunction(s, environment);
+                return Interpreter.NORMAL;
+            };
+        }
+
+        throw new IllegalArgumentException("Cannot compile " + stmt);
+    }  //  end method statement
+
+    private static Node expression(Expr expr) {
+        if (expr instanceof Expr.Literal e) {
+            if (e.value instanceof Double) {
+                double value = (double) e.value;
+                return (interpreter, environment) -> {
+                    interpreter.number = value;
+                    return Environment.NUMBER;
+                };
+            }
+            Object value = e.value;
+            return (interpreter, environment) -> value;
+        }
+
+        if (expr instanceof Expr.Grouping e) return expression(e.expression);
+
+        if (expr instanceof Expr.Variable e) return variable(e);
+
+        if (expr instanceof Expr.Assign e) return assign(e);
+
+        if (expr instanceof Expr.Logical e) {
+            Node left = expression(e.left);
+            Node right = expression(e.right);
+            if (e.operator.type == TokenType.OR) {
+                return (interpreter, environment) -> {
+                    Object value = left.run(interpreter, environment);
+                    if (Interpreter.isTruthy(value)) return value;
+                    return right.run(interpreter, environment);
+                };
+            }
+            return (interpreter, environment) -> {
+                Object value = left.run(interpreter, environment);
+                if (!Interpreter.isTruthy(value)) return value;
+                return right.run(interpreter, environment);
+            };
+        }
+
+        if (expr instanceof Expr.Unary e) return unary(e);
+
+        if (expr instanceof Expr.Binary e) return binary(e);
+
+        if (expr instanceof Expr.Call e) return call(e, false);
+
+        throw new IllegalArgumentException("Cannot compile " + expr);
+    }  //  end method expression
+
+    private static Node variable(Expr.Variable expr) {
+        int slot = expr.slot;
+        if (expr.depth == -1) {
+            Token name = expr.name;
+            return (interpreter, environment) -> {
+                Object value = load(interpreter, interpreter.globals, slot);
+                if (value == Environment.UNDEFINED)
+                    throw new RuntimeError(name,
+                            "Undefined variable " + name.lexeme + ".");
+                return value;
+            };
+        }
+
+        int depth = expr.depth;
+        return switch (depth) {
+            case 0 -> (interpreter, environment) ->
+                    load(interpreter, environment, slot);
+            case 1 -> (interpreter, environment) ->
+                    load(interpreter, environment.enclosing, slot);
+            default -> (interpreter, environment) ->
+                    load(interpreter, environment.ancestor(depth), slot);
+        };
+    }  //  end method variable
+
+    private static Node assign(Expr.Assign expr) {
+        Node value = expression(expr.value);
+        int slot = expr.slot;
+        if (expr.depth == -1) {
+            Token name = expr.name;
+            return (interpreter, environment) -> {
+                Object result = value.run(interpreter, environment);
+                if (interpreter.globals.values[slot] == Environment.UNDEFINED)
+                    throw new RuntimeError(name,
+                            "Undefined variable " + name.lexeme + ".");
+                store(interpreter, interpreter.globals, slot, result);
+                return result;
+            };
+        }
+
+        int depth = expr.depth;
+        return (interpreter, environment) -> {
+            Object result = value.run(interpreter, environment);
+            store(interpreter, environment.ancestor(depth), slot, result);
+            return result;
+        };
+    }  //  end method assign
+
+    private static Node unary(Expr.Unary expr) {
+        Node right = expression(expr.right);
+        Token operator = expr.operator;
+        return switch (operator.type) {
+            case MINUS -> (interpreter, environment) -> {
+                Object value = right.run(interpreter, environment);
+                Interpreter.checkNumberOperand(operator, value);
+                interpreter.number = -interpreter.number;
+                return Environment.NUMBER;
+            };
+            case BANG -> (interpreter, environment) ->
+                    !Interpreter.isTruthy(right.run(interpreter, environment));
+            default -> throw new IllegalArgumentException("Cannot compile " + expr);
+        };
+    }  //  end method unary
+
+    private static Node binary(Expr.Binary expr) {
+        Node left = expression(expr.left);
+        Node right = expression(expr.right);
+        Token operator = expr.operator;
+
+        // each operator gets a lambda of its own, so no switch on the
+        // operator runs when the node does
+        return switch (operator.type) {
+            case PLUS -> (interpreter, environment) -> {
+                Object a = left.run(interpreter, environment);
+                double l = interpreter.number;
+                Object b = right.run(interpreter, environment);
+                if (a == Environment.NUMBER && b == Environment.NUMBER) {
+                    interpreter.number = l + interpreter.number;
+                    return Environment.NUMBER;
+                }
+                if (Rope.isString(a) && Rope.isString(b))
+                    return Rope.concat(a, b);
+                throw new RuntimeError(operator,
+                        "Operands must be two numbers or strings.");
+            };
+            case MINUS -> (interpreter, environment) -> {
+                Object a = left.run(interpreter, environment);
+                double l = interpreter.number;
+                Object b = right.run(interpreter, environment);
+                Interpreter.checkNumberOperands(operator, a, b);
+                interpreter.number = l - interpreter.number;
+                return Environment.NUMBER;
+            };
+            case STAR -> (interpreter, environment) -> {
+                Object a = left.run(interpreter, environment);
+                double l = interpreter.number;
+                Object b = right.run(interpreter, environment);
+                Interpreter.checkNumberOperands(operator, a, b);
+                interpreter.number = l * interpreter.number;
+                return Environment.NUMBER;
+            };
+            case SLASH -> (interpreter, environment) -> {
+                Object a = left.run(interpreter, environment);
+                double l = interpreter.number;
+                Object b = right.run(interpreter, environment);
+                Interpreter.checkNumberOperands(operator, a, b);
+                interpreter.number = l / interpreter.number;
+                return Environment.NUMBER;
+            };
+            case GREATER -> (interpreter, environment) -> {
+                Object a = left.run(interpreter, environment);
+                double l = interpreter.number;
+                Object b = right.run(interpreter, environment);
+                Interpreter.checkNumberOperands(operator, a, b);
+                return l > interpreter.number;
+            };
+            case GREATER_EQUAL -> (interpreter, environment) -> {
+                Object a = left.run(interpreter, environment);
+                double l = interpreter.number;
+                Object b = right.run(interpreter, environment);
+                Interpreter.checkNumberOperands(operator, a, b);
+                return l >= interpreter.number;
+            };
+            case LESS -> (interpreter, environment) -> {
+                Object a = left.run(interpreter, environment);
+                double l = interpreter.number;
+                Object b = right.run(interpreter, environment);
+                Interpreter.checkNumberOperands(operator, a, b);
+                return l < interpreter.number;
+            };
+            case LESS_EQUAL -> (interpreter, environment) -> {
+                Object a = left.run(interpreter, environment);
+                double l = interpreter.number;
+                Object b = right.run(interpreter, environment);
+                Interpreter.checkNumberOperands(operator, a, b);
+                return l <= interpreter.number;
+            };
+            case EQUAL_EQUAL -> (interpreter, environment) -> {
+                Object a = left.run(interpreter, environment);
+                double l = interpreter.number;
+                Object b = right.run(interpreter, environment);
+                return Interpreter.isEqual(a, l, b, interpreter.number);
+            };
+            case BANG_EQUAL -> (interpreter, environment) -> {
+                Object a = left.run(interpreter, environment);
+                double l = interpreter.number;
+                Object b = right.run(interpreter, environment);
+                return !Interpreter.isEqual(a, l, b, interpreter.number);
+            };
+            default -> throw new IllegalArgumentException("Cannot compile " + expr);
+        };
+    }  //  end method binary
+
+    /**
+     * Compile a call. A tail call to a Lox function only sets up the callee's
+     * frame and leaves the call to LoxFunction.invoke.
+     */
+    private static Node call(Expr.Call expr, boolean tail) {
+        Node callee = expression(expr.callee);
+        Node[] arguments = new Node[expr.arguments.size()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = expression(expr.arguments.get(i));
+        }
+        Token paren = expr.paren;
+
+        // shares the call site cache with the tree-walker
+        return (interpreter, environment) -> {
+            Object value = callee.run(interpreter, environment);
+
+            if (!Interpreter.linked(expr, value))
+                return interpreter.call(paren, value,
+                        boxed(interpreter, environment, arguments));
+
+            if (value instanceof LoxFunction function) {
+                Environment frame = function.bind(interpreter);
+                for (int i = 0; i < arguments.length; i++) {
+                    store(interpreter, frame, i,
+                            arguments[i].run(interpreter, environment));
+                }
+                if (tail) return interpreter.tailCall(function, frame);
+                return function.invoke(interpreter, frame);
+            }
+
+            if (value instanceof FrameNative function) {
+                Environment frame = interpreter.allocate(null, arguments.length);
+                for (int i = 0; i < arguments.length; i++) {
+                    store(interpreter, frame, i,
+                            arguments[i].run(interpreter, environment));
+                }
+                return interpreter.callNative(paren, function, frame);
+            }
+
+            return interpreter.callNative(paren, (LoxCallable) value,
+                    boxed(interpreter, environment, arguments));
+        };
+    }  //  end method call
+
+    /**
+     * A loop the Resolver found counted, as Interpreter.countedLoop runs
+     * it, falling back to loop on anything that is not a number.
+     */
+    private static Node countedLoop(Stmt.While stmt, Node loop) {
+        int slot = stmt.counter.slot;
+        Node limit = expression(((Expr.Binary) stmt.condition).right);
+        Node body = statement(((Stmt.Block) stmt.body).statements.get(0));
+        Token keyword = stmt.keyword;
+        return (interpreter, environment) -> {
+            if (environment.values[slot] != Environment.NUMBER)
+                return loop.run(interpreter, environment);
+
+            double counter = environment.numbers[slot];
+            for (;;) {
+                if (limit.run(interpreter, environment) != Environment.NUMBER)
+                    return loop.run(interpreter, environment);
+                if (!(counter < interpreter.number)) return Interpreter.NORMAL;
+
+                if (--interpreter.fuel < 0) interpreter.refuel(keyword);
+                Object completion = body.run(interpreter, environment);
+                if (completion != Interpreter.NORMAL) return completion;
+                environment.numbers[slot] = ++counter;
+            }
+        };
+    }  //  end method countedLoop
+
+    private static Object[] boxed(Interpreter interpreter, Environment environment,
+                                  Node[] arguments) {
+        Object[] values = new Object[arguments.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = interpreter.box(arguments[i].run(interpreter, environment));
+        }
+        return values;
+    }  //  end method boxed
+
+    private static Object load(Interpreter interpreter, Environment environment, int slot) {
+        Object value = environment.values[slot];
+        if (value == Environment.NUMBER) interpreter.number = environment.numbers[slot];
+        return value;
+    }  //  end method load
+
+    private static void store(Interpreter interpreter, Environment environment,
+                              int slot, Object value) {
+        // number first, see Environment
+        if (value == Environment.NUMBER) environment.numbers[slot] = interpreter.number;
+        environment.values[slot] = value;
+    }  //  end method store
+
+}  //  end class Jit
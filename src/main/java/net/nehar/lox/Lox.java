@@ -3,38 +3,126 @@ package net.nehar.lox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.List;
 
+import net.nehar.lox.vm.Compiler;
+import net.nehar.lox.vm.Function;
+import net.nehar.lox.vm.VM;
+import net.nehar.lox.vm.VmError;
+
+/**
+ * The jlox command line: runs a script, or a prompt, with the engine and
+ * options picked by its flags.
+ */
 public class Lox {
 
-    private static final Interpreter interpreter = new Interpreter();
+    private final ErrorReporter reporter = new ErrorReporter(System.err);
+
+    private final Interpreter interpreter = new Interpreter(reporter);
+
+    // bytecode engine, only created when asked for with --vm
+    private VM vm = null;
+
+    // run the Optimizer over every program before executing it
+    private boolean optimizing = false;
+
+    // run programs from their FlatAst encoding rather than the tree
+    private boolean flat = false;
+
+    // parsed scripts kept on disk, only used with --cache
+    private ScriptCache cache = null;
+
+    private static final Duration PROFILE_INTERVAL = Duration.ofMillis(1);
 
-    static boolean hadError = false;
-    static boolean hadRuntimeError = false;
+    // where --profile writes the samples taken while the script runs
+    private Path profile = null;
 
     public static void main(String [] args) throws IOException {
-        if( args.length > 1 ){
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        Lox lox = new Lox();
+        int arg = 0;
+        while (arg < args.length && args[arg].startsWith("--")) {
+            switch (args[arg]) {
+                case "--vm" -> lox.vm = new VM();
+                case "--specialize" -> lox.interpreter.specializing = true;
+                case "--jit" -> lox.interpreter.compiling = true;
+                case "--optimize" -> lox.optimizing = true;
+                case "--flat" -> lox.flat = true;
+                case "--cache" -> lox.cache = new ScriptCache(cacheDirectory());
+                case "--profile" -> {
+                    if (++arg == args.length) usage();
+                    lox.profile = Paths.get(args[arg]);
+                }
+                default -> usage();
+            }
+            arg++;
+        }
+
+        if( args.length - arg > 1 ){
+            usage();
+        } else if (args.length - arg == 1) {
+            lox.runFile(args[arg]);
         } else {
-            runPrompt();
+            lox.runPrompt();
         }
     }  //  end main
 
-    private static void runFile(String path) throws IOException{
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
-        if(hadError) System.exit(65);
-        if(hadRuntimeError) System.exit(70);
+    private static void usage() {
+        System.out.println("Usage: jlox [--vm] [--specialize] [--jit] [--optimize] [--flat] [--cache] [--profile file] [script]");
+        System.exit(64);
+    }  //  end usage
+
+    private static Path cacheDirectory() {
+        String directory = System.getenv("JLOX_CACHE");
+        if (directory != null) return Paths.get(directory);
+        return Paths.get(System.getProperty("user.home"), ".cache", "jlox");
+    }  //  end cacheDirectory
+
+    private void runFile(String path) throws IOException{
+        Profiler profiler = null;
+        if (profile != null) {
+            profiler = Profiler.start(PROFILE_INTERVAL);
+            interpreter.profile(profiler, "<script>");
+        }
+
+        // map the script rather than read it onto the heap, the scanner
+        // streams tokens out of it as the parser needs them
+        try (FileChannel channel = FileChannel.open(Paths.get(path))) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                run(new Scanner(Channels.newReader(channel, Charset.defaultCharset()), reporter));
+            } else {
+                MappedByteBuffer script = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                Scanner scanner = new Scanner(
+                        new ByteBufferReader(script, Charset.defaultCharset()), reporter);
+                if (cache != null) runCached(script, scanner);
+                else run(scanner);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (profiler != null) {
+            profiler.stop();
+            try (Writer out = Files.newBufferedWriter(profile)) {
+                profiler.write(out);
+            }
+        }
+        if(reporter.hadError) System.exit(65);
+        if(reporter.hadRuntimeError) System.exit(70);
 
     }  //  end runFile
 
-    private static void runPrompt() throws IOException {
+    private void runPrompt() throws IOException {
         InputStreamReader input = new InputStreamReader(System.in);
         BufferedReader reader = new BufferedReader(input);
 
@@ -43,50 +131,109 @@ public class Lox {
             String line = reader.readLine();
 
             if (line == null) break;
-            run(line);
+            run(new Scanner(line, reporter));
 
             // reset error indicator
-            hadError = false;
+            reporter.hadError = false;
         }
     }  // end runPrompt
 
-    private static void run(String source) {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
-
-        Parser parser = new Parser(tokens);
+    /**
+     * Run a script from its cache entry, parsing and storing it if there is
+     * none yet.
+     */
+    private void runCached(ByteBuffer script, Scanner scanner) {
+        Events.Compilation compilation = new Events.Compilation(scanner);
+        // handed straight over, so no local here keeps the tree alive
+        run(load(script, scanner, compilation), compilation);
+    }  //  end runCached
+
+    /**
+     * @return the statements from the cache, or parsed and stored, or null
+     * on a parse error
+     */
+    private List<Stmt> load(ByteBuffer script, Scanner scanner,
+                            Events.Compilation compilation) {
+        String key = cache.key(script);
+        List<Stmt> statements = cache.load(key);
+        if (statements == null) {
+            statements = new Parser(scanner).parse();
+
+            //error!
+            if (reporter.hadError) {
+                compilation.commit();
+                return null;
+            }
+
+            cache.store(key, statements);
+        }
+        compilation.parsed();
+        return statements;
+    }  //  end load
+
+    private void run(Scanner scanner) {
+        Events.Compilation compilation = new Events.Compilation(scanner);
+        // handed straight over, so no local here keeps the tree alive
+        run(parse(scanner, compilation), compilation);
+    }  //  end run
+
+    /**
+     * @return the parsed statements, or null on a parse error
+     */
+    private List<Stmt> parse(Scanner scanner, Events.Compilation compilation) {
+        Parser parser = new Parser(scanner);
         List<Stmt> statements = parser.parse();
+        compilation.parsed();
 
         //error!
-        if (hadError) return;
+        if (reporter.hadError) {
+            compilation.commit();
+            return null;
+        }
+        return statements;
+    }  //  end parse
 
-        interpreter.interpret(statements);
+    private void run(List<Stmt> statements, Events.Compilation compilation) {
+        if (statements == null) return;
 
-    }  // end run
+        Resolver resolver = new Resolver(interpreter.globals, reporter);
+        resolver.resolve(statements);
+        compilation.resolved();
 
-    static void error(int line, String message) {
-        report(line, "", message);
-    }  // end error(line, message)
+        // resolution error!
+        if (reporter.hadError) {
+            compilation.commit();
+            return;
+        }
 
-    static void error(Token token, String message) {
-        if (token.type == TokenType.EOF) {
-            report(token.line, "at end", message);
-        } else {
-            report(token.line, " at '" + token.lexeme +",", message);
+        // optimize the checked program, then resolve the new tree
+        if (optimizing) {
+            statements = new Optimizer().optimize(statements);
+            new Resolver(interpreter.globals, reporter).resolve(statements);
         }
-    }  //  end error(token, message)
-
-    static void runtimeError(RuntimeError error) {
-        System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
-        hadRuntimeError = true;
-    }  //  end method runtimeError
-
-    private static void report(int line, String where,
-                               String message) {
-        System.err.println(
-                "[line " + line + "] Error" + where + ": " + message
-        );
-        hadError = true;
-    }  // end report
+        compilation.commit();
+
+        if (vm != null) {
+            Function script = new Compiler(vm).compile(statements);
+            try {
+                vm.interpret(script);
+            } catch (VmError error) {
+                reporter.runtimeError(error.line, error.getMessage());
+            }
+            return;
+        }
+
+        if (flat) {
+            FlatInterpreter program =
+                    new FlatInterpreter(interpreter, new Flattener().flatten(statements));
+            // only the flat form runs, let the tree go
+            statements = null;
+            program.interpret();
+            return;
+        }
+
+        interpreter.interpret(statements);
+
+    }  // end run(statements, compilation)
 
 }  // end class Lox
@@ -1,10 +1,14 @@
 package net.nehar.lox;
 
-import java.util.List;
-
-
 public interface LoxCallable {
     int arity();
-    Object call(Interpreter interpreter, List<Object> arguments);
+
+    /**
+     * Call with boxed arguments. The array holds exactly arity() elements
+     * and belongs to the callee. A number may be returned boxed, or as
+     * Environment.NUMBER with its value in the interpreter's number
+     * register.
+     */
+    Object call(Interpreter interpreter, Object[] arguments);
 
 }  //  end interface LoxCallable
@@ -0,0 +1,100 @@
+package net.nehar.lox;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Entry point for running Lox inside another Java program.
+ *
+ * An engine compiles source into CompiledScripts, which can then be run any
+ * number of times, from any number of threads at once. Engines and scripts
+ * hold no per-run state, so one of each can be shared by a whole service.
+ *
+ *     LoxEngine engine = new LoxEngine(LoxEngine.Option.JIT);
+ *     CompiledScript script = engine.compile("print 1 + 2;");
+ *     script.execute();
+ *
+ * The bytecode VM keeps its globals in the VM itself and is not available
+ * here; embedders get the tree-walking engines.
+ */
+public final class LoxEngine {
+
+    public enum Option {
+        // fold constants and drop dead code before running, like --optimize
+        OPTIMIZE,
+        // specialize arithmetic on operand types, like --specialize
+        SPECIALIZE,
+        // compile hot functions, like --jit
+        JIT,
+        // run the flat encoding of the program, like --flat
+        FLAT
+    }  //  end enum Option
+
+    private final Set<Option> options;
+
+    public LoxEngine(Option... options) {
+        this.options = options.length == 0
+                ? EnumSet.noneOf(Option.class)
+                : EnumSet.of(options[0], options);
+    }
+
+    /**
+     * Scan, parse and resolve a program.
+     *
+     * @throws CompileError listing every error found in the source
+     */
+    public CompiledScript compile(String source) {
+        Collector reporter = new Collector();
+        Scanner scanner = new Scanner(source, reporter);
+        Events.Compilation compilation = new Events.Compilation(scanner);
+
+        List<Stmt> statements = new Parser(scanner).parse();
+        compilation.parsed();
+
+        Environment globals = Interpreter.newGlobals();
+        if (!reporter.hadError) {
+            new Resolver(globals, reporter).resolve(statements);
+            compilation.resolved();
+        }
+        if (reporter.hadError) {
+            compilation.commit();
+            throw new CompileError(reporter.errors);
+        }
+
+        if (options.contains(Option.OPTIMIZE)) {
+            statements = new Optimizer().optimize(statements);
+            new Resolver(globals, reporter).resolve(statements);
+        }
+
+        FlatAst flat = options.contains(Option.FLAT)
+                ? new Flattener().flatten(statements)
+                : null;
+        compilation.commit();
+
+        return new CompiledScript(statements, flat, globals,
+                options.contains(Option.SPECIALIZE), options.contains(Option.JIT));
+    }  //  end method compile
+
+    /**
+     * Keeps the errors of a compile, formatted as the command line prints
+     * them.
+     */
+    private static class Collector extends ErrorReporter {
+
+        final List<String> errors = new ArrayList<>();
+
+        Collector() {
+            super((PrintStream) null);
+        }
+
+        @Override
+        protected void report(int line, String where, String message) {
+            errors.add("[line " + line + "] Error" + where + ": " + message);
+        }  //  end method report
+
+    }  //  end class Collector
+
+}  //  end class LoxEngine
@@ -1,10 +1,7 @@
 package net.nehar.lox;
 
-import java.util.List;
-
-
 public class LoxFunction implements LoxCallable {
-    private final Stmt.Function declaration;
+    final Stmt.Function declaration;
     private final Environment closure;
 
     LoxFunction(Stmt.Function declaration, Environment closure) {
@@ -24,23 +21,97 @@ public class LoxFunction implements LoxCallable {
 
     @Override
     public Object call(Interpreter interpreter,
-                       List<Object> arguments) {
+                       Object[] arguments) {
         // create the new scope
-        Environment environment = new Environment(closure);
+        Environment environment = bind(interpreter);
 
-        // add arguments to current scope
-        for (int i = 0; i < declaration.params.size(); i++) {
-            environment.define(declaration.params.get(i).lexeme,
-                    arguments.get(i));
+        // add arguments to current scope, params take the first slots
+        for (int i = 0; i < arguments.length; i++) {
+            environment.set(i, arguments[i]);
         }
 
-        // run the callable
+        return interpreter.box(invoke(interpreter, environment));
+    }  //  end method call
+
+    /**
+     * Scope for a call, to be filled with the arguments.
+     */
+    Environment bind(Interpreter interpreter) {
+        return interpreter.allocate(closure, declaration.slots);
+    }  //  end method bind
+
+    /**
+     * Run the body in a scope made by bind. A returned number comes back
+     * in the interpreter's number register.
+     *
+     * Tail calls made by the body run here, one after the other, rather
+     * than nested in the body that made them. A leaf function makes no
+     * closures, so its scope is given back once its body has run.
+     */
+    Object invoke(Interpreter interpreter, Environment environment) {
+        Object completion = execute(interpreter, environment);
+        if (declaration.leaf) interpreter.recycle(environment);
+        if (completion == Interpreter.TAIL_CALL) completion = trampoline(interpreter);
+        return completion == Interpreter.NORMAL ? null : completion;
+    }  //  end method invoke
+
+    /**
+     * Run the pending tail call and the ones it leaves in turn. When
+     * profiling, this function's frame stays on the shadow stack under
+     * them, so the caller that made the first tail call is still seen;
+     * functions between it and the last one of a chain are not.
+     */
+    private Object trampoline(Interpreter interpreter) {
+        Profiler.Stack stack = interpreter.stack;
+        if (stack != null) stack.push(declaration.name.lexeme, declaration.name.line);
         try {
-            interpreter.executeBlock(declaration.body, environment);
-        } catch (Return returnValue) {
-            return returnValue.value;
+            Object completion;
+            do {
+                LoxFunction function = interpreter.tailFunction;
+                Environment frame = interpreter.tailFrame;
+                interpreter.tailFunction = null;
+                interpreter.tailFrame = null;
+                completion = function.execute(interpreter, frame);
+                if (function.declaration.leaf) interpreter.recycle(frame);
+            } while (completion == Interpreter.TAIL_CALL);
+            return completion;
+        } finally {
+            if (stack != null) stack.pop();
         }
-        return null;
-    }  //  end method call
+    }  //  end method trampoline
+
+    /**
+     * Run the body once, in a frame of the shadow stack when profiling and
+     * timed when recording calls.
+     */
+    private Object execute(Interpreter interpreter, Environment environment) {
+        if (--interpreter.fuel < 0) interpreter.refuel(declaration.name);
+
+        Profiler.Stack stack = interpreter.stack;
+        if (stack == null && !Events.recording()) return run(interpreter, environment);
+
+        if (stack != null) stack.push(declaration.name.lexeme, declaration.name.line);
+        Events.Call event = Events.call();
+        try {
+            return run(interpreter, environment);
+        } finally {
+            if (stack != null) stack.pop();
+            if (event != null) event.end(declaration.name.lexeme, declaration.name.line);
+        }
+    }  //  end method execute
+
+    /**
+     * Run the body, compiled if it is hot. Calls are counted per
+     * declaration, so every closure made from it shares the compiled body.
+     */
+    private Object run(Interpreter interpreter, Environment environment) {
+        Jit.Node compiled = declaration.compiled;
+        if (compiled != null) return compiled.run(interpreter, environment);
+
+        if (interpreter.compiling && ++declaration.calls == Jit.HOT_CALLS)
+            declaration.compiled = Jit.compile(declaration);
+
+        return interpreter.executeBlock(declaration.body, environment);
+    }  //  end method run
 
 }  //  end class LoxFunction
@@ -0,0 +1,134 @@
+package net.nehar.lox;
+
+import java.util.Arrays;
+
+/**
+ * Growable list, used from Lox through natives:
+ *
+ *     list()                  a new empty list
+ *     get(list, index)        the element at index
+ *     set(list, index, value) replace the element at index, returns value
+ *     push(list, value)       append value, returns the new length
+ *     length(list)            number of elements
+ *
+ * Indexes are integral numbers from 0 up to the length.
+ *
+ * While every element is a number the elements are kept in a double[].
+ * The natives are FrameNatives, so index and value arguments arrive in the
+ * number lane of their frame, and get hands a number back in the number
+ * register: no Double is made on the way in or out. The first other value
+ * stored moves the list to an Object[] for good, as Specialization does
+ * with a node.
+ *
+ * Like variables, lists are not synchronized: a list one task changes
+ * while another reads it can be seen half updated.
+ */
+final class LoxList {
+
+    private static final int CAPACITY = 8;
+
+    // storage while every element is a number, null once generalized
+    private double[] numbers = new double[CAPACITY];
+    private Object[] values = null;
+    private int length = 0;
+
+    static void define(Environment globals) {
+        globals.define("list", new FrameNative(0, (interpreter, arguments) -> new LoxList()));
+        globals.define("get", new FrameNative(2, LoxList::get));
+        globals.define("set", new FrameNative(3, LoxList::set));
+        globals.define("push", new FrameNative(2, LoxList::push));
+        globals.define("length", new FrameNative(1, LoxList::length));
+    }  //  end method define
+
+    @Override
+    public String toString() {
+        return "<list>";
+    }  //  end method toString
+
+    private static Object get(Interpreter interpreter, Environment arguments) {
+        LoxList list = list(arguments.values[0]);
+        int index = list.index(arguments, 1);
+        if (list.values != null) return list.values[index];
+
+        interpreter.number = list.numbers[index];
+        return Environment.NUMBER;
+    }  //  end method get
+
+    private static Object set(Interpreter interpreter, Environment arguments) {
+        LoxList list = list(arguments.values[0]);
+        int index = list.index(arguments, 1);
+        Object value = arguments.values[2];
+
+        if (value != Environment.NUMBER) {
+            list.generalize()[index] = value;
+            return value;
+        }
+
+        double number = arguments.numbers[2];
+        if (list.values == null)
+            list.numbers[index] = number;
+        else
+            list.values[index] = number;
+        interpreter.number = number;
+        return Environment.NUMBER;
+    }  //  end method set
+
+    private static Object push(Interpreter interpreter, Environment arguments) {
+        LoxList list = list(arguments.values[0]);
+        Object value = arguments.values[1];
+
+        if (list.values == null && value == Environment.NUMBER) {
+            if (list.length == list.numbers.length)
+                list.numbers = Arrays.copyOf(list.numbers, list.length * 2);
+            list.numbers[list.length] = arguments.numbers[1];
+        } else {
+            Object[] values = list.generalize();
+            if (list.length == values.length)
+                values = list.values = Arrays.copyOf(values, list.length * 2);
+            values[list.length] = arguments.get(1);
+        }
+        list.length++;
+
+        interpreter.number = list.length;
+        return Environment.NUMBER;
+    }  //  end method push
+
+    private static Object length(Interpreter interpreter, Environment arguments) {
+        interpreter.number = list(arguments.values[0]).length;
+        return Environment.NUMBER;
+    }  //  end method length
+
+    private static LoxList list(Object value) {
+        if (value instanceof LoxList list) return list;
+        throw new RuntimeError("Operand must be a list.");
+    }  //  end method list
+
+    /**
+     * The index in an argument slot, checked against this list.
+     */
+    private int index(Environment arguments, int slot) {
+        if (arguments.values[slot] != Environment.NUMBER)
+            throw new RuntimeError("List index must be an integer.");
+        double number = arguments.numbers[slot];
+        if (number != Math.floor(number))
+            throw new RuntimeError("List index must be an integer.");
+        if (number < 0 || number >= length)
+            throw new RuntimeError("List index out of range.");
+        return (int) number;
+    }  //  end method index
+
+    /**
+     * Move the elements to Object storage if they are not there yet.
+     */
+    private Object[] generalize() {
+        if (values != null) return values;
+
+        values = new Object[numbers.length];
+        for (int i = 0; i < length; i++) {
+            values[i] = numbers[i];
+        }
+        numbers = null;
+        return values;
+    }  //  end method generalize
+
+}  //  end class LoxList
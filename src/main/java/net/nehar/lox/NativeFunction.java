@@ -0,0 +1,36 @@
+package net.nehar.lox;
+
+/**
+ * A function implemented in Java and callable from Lox code.
+ */
+final class NativeFunction implements LoxCallable {
+
+    @FunctionalInterface
+    interface Body {
+        Object call(Interpreter interpreter, Object[] arguments);
+    }  //  end interface Body
+
+    private final int arity;
+    private final Body body;
+
+    NativeFunction(int arity, Body body) {
+        this.arity = arity;
+        this.body = body;
+    }
+
+    @Override
+    public int arity() {
+        return arity;
+    }  //  end method arity
+
+    @Override
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        return body.call(interpreter, arguments);
+    }  //  end method call
+
+    @Override
+    public String toString() {
+        return "<native fn>";
+    }  //  end method toString
+
+}  //  end class NativeFunction
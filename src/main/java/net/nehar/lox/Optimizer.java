@@ -0,0 +1,432 @@
+package net.nehar.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+
+/**
+ * Optional AST to AST pass, run after the Resolver has checked the program
+ * and before it is resolved again for execution.
+ *
+ * Folds operators whose operands are all literals, replaces reads of
+ * variables that are initialized with a constant and never assigned by
+ * that constant, drops branches and loops whose condition is constant and
+ * statements that follow a return. Anything that would fail at runtime,
+ * like "a" - 1, is left alone so it still fails at runtime, on its line.
+ *
+ * Globals are only propagated into top level code after their
+ * declaration, since functions may run before it, and only when the
+ * script declares them once.
+ */
+public class Optimizer implements
+        Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+
+    // variables assigned anywhere: locals by declaration, globals by name
+    private final Set<Stmt.Var> assigned = new HashSet<>();
+    private final Set<String> assignedGlobals = new HashSet<>();
+    private final Map<String, Integer> globalDeclarations = new HashMap<>();
+
+    // name to declaration, null for parameters, functions and variables
+    // still being initialized
+    private final Stack<Map<String, Stmt.Var>> scopes = new Stack<>();
+    private final Map<String, Stmt.Var> globals = new HashMap<>();
+
+    // folded initializers of the variables that are constant
+    private final Map<Stmt.Var, Expr.Literal> constants = new HashMap<>();
+
+    private int functionDepth = 0;
+
+    List<Stmt> optimize(List<Stmt> statements) {
+        new Assignments().scan(statements);
+        return optimizeAll(statements);
+    }  //  end method optimize
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        scopes.push(new HashMap<>());
+        List<Stmt> statements = optimizeAll(stmt.statements);
+        scopes.pop();
+        return new Stmt.Block(statements);
+    }  //  end method visitBlockStmt
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = optimize(stmt.expression);
+
+        // a literal on its own does nothing
+        if (expression instanceof Expr.Literal) return null;
+        return new Stmt.Expression(expression);
+    }  //  end method visitExpressionStmt
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        declare(stmt.name, null);
+
+        functionDepth++;
+        scopes.push(new HashMap<>());
+        for (Token param : stmt.params) {
+            scopes.peek().put(param.lexeme, null);
+        }
+        List<Stmt> body = optimizeAll(stmt.body);
+        scopes.pop();
+        functionDepth--;
+
+        return new Stmt.Function(stmt.name, stmt.params, body);
+    }  //  end method visitFunctionStmt
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = optimize(stmt.condition);
+
+        if (condition instanceof Expr.Literal literal) {
+            if (Interpreter.isTruthy(literal.value)) return optimize(stmt.thenBranch);
+            return stmt.elseBranch == null ? null : optimize(stmt.elseBranch);
+        }
+
+        Stmt thenBranch = orEmpty(optimize(stmt.thenBranch));
+        Stmt elseBranch = stmt.elseBranch == null ? null : optimize(stmt.elseBranch);
+        return new Stmt.If(condition, thenBranch, elseBranch);
+    }  //  end method visitIfStmt
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        return new Stmt.Print(optimize(stmt.expression));
+    }  //  end method visitPrintStmt
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) return stmt;
+        return new Stmt.Return(stmt.keyword, optimize(stmt.value));
+    }  //  end method visitReturnStmt
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        // not constant while its own initializer is looked at
+        declare(stmt.name, null);
+
+        Expr initializer = stmt.initializer == null ? null : optimize(stmt.initializer);
+        Stmt.Var var = new Stmt.Var(stmt.name, initializer);
+
+        if (!assigned.contains(stmt)) {
+            if (initializer == null)
+                constants.put(var, new Expr.Literal(null));
+            else if (initializer instanceof Expr.Literal literal)
+                constants.put(var, literal);
+        }
+        declare(stmt.name, var);
+
+        return var;
+    }  //  end method visitVarStmt
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = optimize(stmt.condition);
+
+        if (condition instanceof Expr.Literal literal &&
+                !Interpreter.isTruthy(literal.value)) return null;
+
+        return new Stmt.While(stmt.keyword, condition, orEmpty(optimize(stmt.body)));
+    }  //  end method visitWhileStmt
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        return new Expr.Assign(expr.name, optimize(expr.value));
+    }  //  end method visitAssignExpr
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        if (left instanceof Expr.Literal l && right instanceof Expr.Literal r) {
+            Object value = fold(expr.operator.type, l.value, r.value);
+            if (value != NOT_FOLDED) return new Expr.Literal(value);
+        }
+
+        return new Expr.Binary(left, expr.operator, right);
+    }  //  end method visitBinaryExpr
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        List<Expr> arguments = new ArrayList<>();
+        for (Expr argument : expr.arguments) {
+            arguments.add(optimize(argument));
+        }
+        return new Expr.Call(optimize(expr.callee), expr.paren, arguments);
+    }  //  end method visitCallExpr
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        return optimize(expr.expression);
+    }  //  end method visitGroupingExpr
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }  //  end method visitLiteralExpr
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        // short-circuits to one side or the other
+        if (left instanceof Expr.Literal literal) {
+            boolean truthy = Interpreter.isTruthy(literal.value);
+            if (expr.operator.type == TokenType.OR) return truthy ? left : right;
+            return truthy ? right : left;
+        }
+
+        return new Expr.Logical(left, expr.operator, right);
+    }  //  end method visitLogicalExpr
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = optimize(expr.right);
+
+        if (right instanceof Expr.Literal literal) {
+            if (expr.operator.type == TokenType.BANG)
+                return new Expr.Literal(!Interpreter.isTruthy(literal.value));
+            if (expr.operator.type == TokenType.MINUS && literal.value instanceof Double)
+                return new Expr.Literal(-(double) literal.value);
+        }
+
+        return new Expr.Unary(expr.operator, right);
+    }  //  end method visitUnaryExpr
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        String name = expr.name.lexeme;
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            if (scopes.get(i).containsKey(name)) {
+                Expr.Literal constant = constants.get(scopes.get(i).get(name));
+                return constant != null ? constant : new Expr.Variable(expr.name);
+            }
+        }
+
+        if (functionDepth == 0 && globalDeclarations.getOrDefault(name, 0) == 1 &&
+                !assignedGlobals.contains(name)) {
+            Expr.Literal constant = constants.get(globals.get(name));
+            if (constant != null) return constant;
+        }
+        return new Expr.Variable(expr.name);
+    }  //  end method visitVariableExpr
+
+    // fold result for operand types the operator would fail on at runtime
+    private static final Object NOT_FOLDED = new Object();
+
+    private static Object fold(TokenType operator, Object left, Object right) {
+        if (operator == TokenType.EQUAL_EQUAL) return isEqual(left, right);
+        if (operator == TokenType.BANG_EQUAL) return !isEqual(left, right);
+
+        if (left instanceof String l && right instanceof String r) {
+            return operator == TokenType.PLUS ? l + r : NOT_FOLDED;
+        }
+
+        if (!(left instanceof Double && right instanceof Double)) return NOT_FOLDED;
+        double l = (double) left;
+        double r = (double) right;
+
+        return switch (operator) {
+            case PLUS -> l + r;
+            case MINUS -> l - r;
+            case STAR -> l * r;
+            case SLASH -> l / r;
+            case GREATER -> l > r;
+            case GREATER_EQUAL -> l >= r;
+            case LESS -> l < r;
+            case LESS_EQUAL -> l <= r;
+            default -> NOT_FOLDED;
+        };
+    }  //  end method fold
+
+    private static boolean isEqual(Object a, Object b) {
+        if (a == null) return b == null;
+        return a.equals(b);
+    }  //  end method isEqual
+
+    /**
+     * Optimize a statement list, dropping removed statements and anything
+     * after a return.
+     */
+    private List<Stmt> optimizeAll(List<Stmt> statements) {
+        List<Stmt> optimized = new ArrayList<>();
+        for (Stmt statement : statements) {
+            Stmt result = optimize(statement);
+            if (result != null) optimized.add(result);
+            if (result instanceof Stmt.Return) break;
+        }
+        return optimized;
+    }  //  end method optimizeAll
+
+    private Stmt optimize(Stmt stmt) {
+        return stmt.accept(this);
+    }  //  end method optimize(stmt)
+
+    private Expr optimize(Expr expr) {
+        return expr.accept(this);
+    }  //  end method optimize(expr)
+
+    private static Stmt orEmpty(Stmt stmt) {
+        return stmt != null ? stmt : new Stmt.Block(new ArrayList<>());
+    }  //  end method orEmpty
+
+    private void declare(Token name, Stmt.Var var) {
+        if (scopes.isEmpty()) globals.put(name.lexeme, var);
+        else scopes.peek().put(name.lexeme, var);
+    }  //  end method declare
+
+    /**
+     * First pass: finds the variables that are ever assigned, scoping names
+     * the way the Resolver does.
+     */
+    private class Assignments implements
+            Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+        private final Stack<Map<String, Stmt.Var>> scopes = new Stack<>();
+
+        void scan(List<Stmt> statements) {
+            for (Stmt statement : statements) {
+                statement.accept(this);
+            }
+        }  //  end method scan
+
+        private void scan(Expr expr) {
+            expr.accept(this);
+        }  //  end method scan(expr)
+
+        private void declare(Token name, Stmt.Var var) {
+            if (scopes.isEmpty())
+                globalDeclarations.merge(name.lexeme, 1, Integer::sum);
+            else
+                scopes.peek().put(name.lexeme, var);
+        }  //  end method declare
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            scopes.push(new HashMap<>());
+            scan(stmt.statements);
+            scopes.pop();
+            return null;
+        }  //  end method visitBlockStmt
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            scan(stmt.expression);
+            return null;
+        }  //  end method visitExpressionStmt
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            declare(stmt.name, null);
+            scopes.push(new HashMap<>());
+            for (Token param : stmt.params) {
+                scopes.peek().put(param.lexeme, null);
+            }
+            scan(stmt.body);
+            scopes.pop();
+            return null;
+        }  //  end method visitFunctionStmt
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            scan(stmt.condition);
+            stmt.thenBranch.accept(this);
+            if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+            return null;
+        }  //  end method visitIfStmt
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            scan(stmt.expression);
+            return null;
+        }  //  end method visitPrintStmt
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            if (stmt.value != null) scan(stmt.value);
+            return null;
+        }  //  end method visitReturnStmt
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            declare(stmt.name, stmt);
+            if (stmt.initializer != null) scan(stmt.initializer);
+            return null;
+        }  //  end method visitVarStmt
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            scan(stmt.condition);
+            stmt.body.accept(this);
+            return null;
+        }  //  end method visitWhileStmt
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            scan(expr.value);
+
+            String name = expr.name.lexeme;
+            for (int i = scopes.size() - 1; i >= 0; i--) {
+                if (scopes.get(i).containsKey(name)) {
+                    Stmt.Var var = scopes.get(i).get(name);
+                    if (var != null) assigned.add(var);
+                    return null;
+                }
+            }
+            assignedGlobals.add(name);
+            return null;
+        }  //  end method visitAssignExpr
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            scan(expr.left);
+            scan(expr.right);
+            return null;
+        }  //  end method visitBinaryExpr
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            scan(expr.callee);
+            for (Expr argument : expr.arguments) {
+                scan(argument);
+            }
+            return null;
+        }  //  end method visitCallExpr
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            scan(expr.expression);
+            return null;
+        }  //  end method visitGroupingExpr
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            return null;
+        }  //  end method visitLiteralExpr
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            scan(expr.left);
+            scan(expr.right);
+            return null;
+        }  //  end method visitLogicalExpr
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            scan(expr.right);
+            return null;
+        }  //  end method visitUnaryExpr
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            return null;
+        }  //  end method visitVariableExpr
+
+    }  //  end class Assignments
+
+}  //  end class Optimizer
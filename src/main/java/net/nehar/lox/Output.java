@@ -0,0 +1,140 @@
+package net.nehar.lox;
+
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Where print writes: lines are encoded straight into a byte buffer, which
+ * goes to the stream in one write when it fills up and whenever the
+ * interpreter flushes it, at the end of a run, before a runtime error is
+ * reported and so before every REPL prompt.
+ *
+ * PrintStream.println goes through a String per number, its writers and
+ * encoder and, on System.out, a write call per line. Tasks spawned by a
+ * run print into the same Output, so their lines come out whole and in
+ * the order they were printed.
+ */
+final class Output {
+
+    private static final int SIZE = 1 << 16;
+
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    private static final byte[] NEWLINE = System.lineSeparator().getBytes(CHARSET);
+
+    // whether CHARSET encodes every ASCII char as that one byte, so ASCII
+    // text can be copied into the buffer char by char
+    private static final boolean ASCII;
+    static {
+        byte[] ascii = new byte[128];
+        for (int i = 0; i < ascii.length; i++) ascii[i] = (byte) i;
+        String text = new String(ascii, StandardCharsets.US_ASCII);
+        ASCII = Arrays.equals(ascii, text.getBytes(CHARSET));
+    }  //  end static block
+
+    // integral numbers at least this large print in scientific notation
+    private static final double INTEGRAL_LIMIT = 1e7;
+
+    final PrintStream stream;
+
+    private final byte[] buffer = new byte[SIZE];
+    private int count = 0;
+
+    Output(PrintStream stream) {
+        this.stream = stream;
+    }
+
+    /**
+     * Print a value as Interpreter.stringify would, then a line separator.
+     */
+    synchronized void println(Object value) {
+        if (value instanceof Double number) writeNumber(number);
+        else write(Interpreter.stringify(value));
+        write(NEWLINE);
+    }  //  end method println
+
+    /**
+     * Print a number as Interpreter.stringify would, then a line separator.
+     */
+    synchronized void println(double number) {
+        writeNumber(number);
+        write(NEWLINE);
+    }  //  end method println(number)
+
+    synchronized void flush() {
+        if (count > 0) {
+            stream.write(buffer, 0, count);
+            count = 0;
+        }
+        stream.flush();
+    }  //  end method flush
+
+    /**
+     * Integral numbers that Double.toString would not put in scientific
+     * notation are written digit by digit, others through Double.toString.
+     */
+    private void writeNumber(double number) {
+        long integral = (long) number;
+        if (integral != number || Math.abs(number) >= INTEGRAL_LIMIT) {
+            write(Interpreter.stringify(number));
+            return;
+        }
+
+        room(20);
+        if (integral == 0 && Double.doubleToRawLongBits(number) < 0)
+            buffer[count++] = '-';
+        if (integral < 0) {
+            buffer[count++] = '-';
+            integral = -integral;
+        }
+
+        int digits = 1;
+        for (long rest = integral / 10; rest > 0; rest /= 10) digits++;
+        for (int i = count + digits - 1; i >= count; i--) {
+            buffer[i] = (byte) ('0' + integral % 10);
+            integral /= 10;
+        }
+        count += digits;
+    }  //  end method writeNumber
+
+    private void write(String text) {
+        int length = text.length();
+        if (!ASCII) {
+            write(text.getBytes(CHARSET));
+            return;
+        }
+
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+                write(text.substring(i).getBytes(CHARSET));
+                return;
+            }
+            if (count == SIZE) drain();
+            buffer[count++] = (byte) c;
+        }
+    }  //  end method write(text)
+
+    private void write(byte[] bytes) {
+        if (bytes.length > SIZE) {
+            drain();
+            stream.write(bytes, 0, bytes.length);
+            return;
+        }
+        room(bytes.length);
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+    }  //  end method write(bytes)
+
+    private void room(int bytes) {
+        if (count + bytes > SIZE) drain();
+    }  //  end method room
+
+    private void drain() {
+        stream.write(buffer, 0, count);
+        count = 0;
+    }  //  end method drain
+
+}  //  end class Output
@@ -49,13 +49,35 @@ public class Parser {
 
     private static class ParseError extends RuntimeException {}
 
-    private final List<Token> tokens;
+    // tokens scanned per refill when streaming from a scanner
+    private static final int CHUNK = 1024;
+
+    private final TokenBuffer tokens;
     private int current = 0;
 
-    Parser(List<Token> tokens) {
+    private final ErrorReporter reporter;
+
+    // null when all the tokens are in the buffer from the start
+    private final Scanner scanner;
+
+    Parser(TokenBuffer tokens, ErrorReporter reporter) {
         this.tokens = tokens;
+        this.reporter = reporter;
+        this.scanner = null;
     }  //  end constructor
 
+    /**
+     * Parser that has the scanner fill its buffer a chunk at a time, so
+     * only the tokens of the current chunk are ever held. Errors go to the
+     * scanner's reporter.
+     */
+    Parser(Scanner scanner) {
+        this.tokens = new TokenBuffer(CHUNK + 1);
+        this.scanner = scanner;
+        this.reporter = scanner.reporter;
+        scanner.scan(tokens, CHUNK);
+    }  //  end constructor(scanner)
+
     List<Stmt> parse() {
         List<Stmt> statements = new ArrayList<>();
         while( !isAtEnd()) {
@@ -91,6 +113,7 @@ public class Parser {
     }  //  end method ifStatement
 
     private Stmt forStatement() {
+        Token keyword = previous();
         consume(TokenType.LEFT_PAREN, "Expect '(' after 'for'.");
 
         Stmt initializer;
@@ -108,7 +131,7 @@ public class Parser {
         }
         consume(TokenType.SEMICOLON, "Expect ';' after loop condition.");
 
-        Expr increment = expression();
+        Expr increment = null;
         if (!check(TokenType.RIGHT_PAREN)) {
             increment = expression();
         }
@@ -124,7 +147,7 @@ public class Parser {
         }
 
         if (condition == null) condition = new Expr.Literal(true);
-        body = new Stmt.While(condition, body);
+        body = new Stmt.While(keyword, condition, body);
 
         if (initializer != null)
             body = new Stmt.Block(Arrays.asList(initializer, body));
@@ -149,15 +172,17 @@ public class Parser {
     }  //  end method returnStatement
 
     private Stmt whileStatement() {
+        Token keyword = previous();
         consume(TokenType.LEFT_PAREN, "Expect '(' after 'while'.");
         Expr condition = expression();
         consume(TokenType.RIGHT_PAREN, "Expect ')' after 'while'.");
         Stmt body = statement();
-        return new Stmt.While(condition, body);
+        return new Stmt.While(keyword, condition, body);
     }  //  end method  whileStatement
 
     private Stmt varDeclaration() {
-        Token name = consume(TokenType.IDENTIFIER, "Expect variable name.");
+        consume(TokenType.IDENTIFIER, "Expect variable name.");
+        Token name = previous();
 
         Expr initializer = match(TokenType.EQUAL) ? expression(): null;
 
@@ -172,7 +197,8 @@ public class Parser {
     }
 
     private Stmt.Function function(String kind) {
-        Token name = consume(TokenType.IDENTIFIER, "Expect " + kind + " name.");
+        consume(TokenType.IDENTIFIER, "Expect " + kind + " name.");
+        Token name = previous();
 
         consume(TokenType.LEFT_PAREN, "Expect '(' after " + kind + " name.");
         List<Token> parameters = new ArrayList<>();
@@ -181,7 +207,8 @@ public class Parser {
                 if (parameters.size() >= 255)
                     error(peek(), "Can't have more than 255 parameters.");
 
-                parameters.add(consume(TokenType.IDENTIFIER, "Expect parameter name"));
+                consume(TokenType.IDENTIFIER, "Expect parameter name");
+                parameters.add(previous());
             } while (match(TokenType.COMMA));
         }
         consume(TokenType.RIGHT_PAREN, "Expect ')' after parameters.");
@@ -338,8 +365,8 @@ public class Parser {
             } while (match(TokenType.COMMA));
         }
 
-        Token paren = consume(TokenType.RIGHT_PAREN,
-                "Expect ')' after arguments.");
+        consume(TokenType.RIGHT_PAREN, "Expect ')' after arguments.");
+        Token paren = previous();
         return new Expr.Call(callee, paren, arguments);
     }  //  end method finishCall
 
@@ -350,7 +377,7 @@ public class Parser {
 
         if (match(TokenType.NUMBER,
                 TokenType.STRING)) {
-            return new Expr.Literal(previous().literal);
+            return new Expr.Literal(tokens.literal(current - 1));
         }
 
         if(match(TokenType.IDENTIFIER))
@@ -375,36 +402,46 @@ public class Parser {
         return false;
     }  //   end method match
 
-    private Token consume(TokenType type, String message) {
-        if (check(type)) return advance();
+    private void consume(TokenType type, String message) {
+        if (check(type)) {
+            advance();
+            return;
+        }
 
         throw error(peek(), message);
     }
 
     private boolean check(TokenType type) {
         if (isAtEnd()) return false;
-        return peek().type == type;
+        return tokens.type(current) == type;
     }  //  end method check
 
-    private Token advance() {
-        if (!isAtEnd()) current ++;
-        return previous();
+    private void advance() {
+        if (isAtEnd()) return;
+
+        current++;
+        if (current == tokens.size()) {
+            // out of scanned tokens, keep only the previous one
+            tokens.keepLast();
+            current = 1;
+            scanner.scan(tokens, CHUNK);
+        }
     }  //  end method advance
 
     private boolean isAtEnd() {
-        return peek().type == TokenType.EOF;
+        return tokens.type(current) == TokenType.EOF;
     }  //  end method isAtEnd
 
     private Token peek() {
-        return tokens.get(current);
+        return tokens.token(current);
     }  //  end method peek
 
     private  Token previous() {
-        return tokens.get(current - 1);
+        return tokens.token(current - 1);
     }  //  end method previous
 
     private ParseError error(Token token, String message) {
-        Lox.error(token, message);
+        reporter.error(token, message);
         return new ParseError();
     }  //  end method error
 
@@ -412,9 +449,9 @@ public class Parser {
         advance();
 
         while (!isAtEnd()) {
-            if (previous().type == TokenType.SEMICOLON) return;
+            if (tokens.type(current - 1) == TokenType.SEMICOLON) return;
 
-            switch (peek().type) {
+            switch (tokens.type(current)) {
                 case CLASS, FUN, VAR, FOR, IF, WHILE, PRINT, RETURN -> { return; }
                 default -> advance();
             }
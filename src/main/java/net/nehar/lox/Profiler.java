@@ -0,0 +1,167 @@
+package net.nehar.lox;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Samples which Lox functions are running, for flame graphs.
+ *
+ * Each profiled Interpreter keeps a shadow stack of the Lox functions it is
+ * in, a name and declaration line per frame, pushed and popped around every
+ * function body. A sampler thread copies each shadow stack at a fixed
+ * interval and counts how often each one is seen. The counts are written in
+ * the collapsed stack format flame graph tools read: one line per distinct
+ * stack, frames from the outermost in, separated by semicolons, then the
+ * count.
+ *
+ *     <script>;main:12;fib:3;fib:3 117
+ *
+ * Frames carry the line a function is declared on, not the line running
+ * in it. A function that returns a tail call keeps its frame while the
+ * call runs, but in a chain of tail calls only the first caller and the
+ * running callee are on the stack.
+ *
+ * Samples are wall clock: a task waiting in join or receive is counted
+ * where it waits. The sampler reads the stacks without locking, so a
+ * sample taken while a frame is being pushed or popped may be off by that
+ * frame.
+ */
+public final class Profiler {
+
+    /**
+     * Shadow stack of one Interpreter. Only that interpreter's thread
+     * pushes and pops; the depth is published with release stores, which
+     * cost nothing extra on the hot path of common hardware.
+     */
+    static final class Stack {
+        private static final VarHandle DEPTH;
+        static {
+            try {
+                DEPTH = MethodHandles.lookup().findVarHandle(Stack.class, "depth", int.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private String[] names = new String[64];
+        private int[] lines = new int[64];
+        private int depth = 0;
+
+        void push(String name, int line) {
+            if (depth == names.length) {
+                names = Arrays.copyOf(names, depth * 2);
+                lines = Arrays.copyOf(lines, depth * 2);
+            }
+            names[depth] = name;
+            lines[depth] = line;
+            DEPTH.setRelease(this, depth + 1);
+        }  //  end method push
+
+        void pop() {
+            DEPTH.setRelease(this, depth - 1);
+        }  //  end method pop
+
+        /**
+         * Count the current stack in samples, unless it is empty.
+         */
+        private void sample(Map<String, Long> samples, StringBuilder stack) {
+            int depth = (int) DEPTH.getAcquire(this);
+            String[] names = this.names;
+            int[] lines = this.lines;
+            depth = Math.min(depth, Math.min(names.length, lines.length));
+            if (depth == 0) return;
+
+            stack.setLength(0);
+            for (int i = 0; i < depth; i++) {
+                if (i > 0) stack.append(';');
+                stack.append(names[i]);
+                if (lines[i] > 0) stack.append(':').append(lines[i]);
+            }
+            samples.merge(stack.toString(), 1L, Long::sum);
+        }  //  end method sample
+
+    }  //  end class Stack
+
+    private final List<Stack> stacks = new CopyOnWriteArrayList<>();
+
+    // only touched by the sampler until stop has joined it
+    private final Map<String, Long> samples = new HashMap<>();
+
+    private final long interval;
+    private final Thread sampler;
+    private volatile boolean running = true;
+
+    private Profiler(Duration interval) {
+        this.interval = interval.toNanos();
+        this.sampler = new Thread(this::run, "lox-profiler");
+        this.sampler.setDaemon(true);
+    }
+
+    /**
+     * Start sampling, every interval, the Interpreters given to this
+     * profiler from now on.
+     */
+    public static Profiler start(Duration interval) {
+        Profiler profiler = new Profiler(interval);
+        profiler.sampler.start();
+        return profiler;
+    }  //  end method start
+
+    /**
+     * Stop sampling and wait for the sampler to finish.
+     */
+    public void stop() {
+        running = false;
+        LockSupport.unpark(sampler);
+        try {
+            sampler.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }  //  end method stop
+
+    /**
+     * Write the samples taken, in collapsed stack format. Call after stop.
+     */
+    public void write(Writer out) throws IOException {
+        for (Map.Entry<String, Long> entry : new TreeMap<>(samples).entrySet()) {
+            out.write(entry.getKey() + " " + entry.getValue() + "\n");
+        }
+        out.flush();
+    }  //  end method write
+
+    /**
+     * New shadow stack to be sampled, holding one frame named root.
+     */
+    Stack attach(String root) {
+        Stack stack = new Stack();
+        stack.push(root, 0);
+        stacks.add(stack);
+        return stack;
+    }  //  end method attach
+
+    void detach(Stack stack) {
+        stacks.remove(stack);
+    }  //  end method detach
+
+    private void run() {
+        StringBuilder stack = new StringBuilder();
+        while (running) {
+            for (Stack each : stacks) {
+                each.sample(samples, stack);
+            }
+            LockSupport.parkNanos(interval);
+        }
+    }  //  end method run
+
+}  //  end class Profiler
@@ -3,31 +3,205 @@ package net.nehar.lox;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
 
-
+/**
+ * Static resolution pass, run between the parser and the interpreter.
+ *
+ * Every local gets a slot in the array of an environment, and every
+ * variable reference and assignment is tagged with how many environments
+ * up it lives (depth) and at which slot. Globals are tagged with depth -1
+ * and a slot in the global environment.
+ *
+ * Only scopes that need one get an environment of their own. A first pass
+ * finds the locals that closures capture; a block inside a function that
+ * declares none of them is not scoped, and its locals take slots in the
+ * nearest enclosing environment, freed again when the block ends. Blocks
+ * that are left scoped hold captured locals, which every execution of the
+ * block must get afresh, or sit at top level, where the next environment
+ * up is the global one. Functions that declare no functions are marked
+ * leaf: nothing can keep their frame once a call returns, so the
+ * interpreter reuses it for the next call.
+ */
 public class Resolver implements
         Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
-    private final Interpreter interpreter;
+    private enum FunctionType {
+        NONE,
+        FUNCTION
+    }
+
+    private static class Local {
+        final Scope owner;
+        final int slot;
+        boolean defined = false;
+        int assignments = 0;
+
+        Local(Scope owner, int slot) {
+            this.owner = owner;
+            this.slot = slot;
+        }
+    }  //  end class Local
+
+    private static class Scope {
+        final Map<String, Local> locals = new HashMap<>();
+
+        // the scope whose environment holds this one's locals, itself if
+        // it has an environment
+        final Scope owner;
+
+        // owner's next free slot when this scope began
+        final int start;
+
+        // owners only: next free slot, and slots the environment needs
+        int next = 0;
+        int size = 0;
+
+        Scope(Scope enclosing, boolean scoped) {
+            this.owner = scoped ? this : enclosing.owner;
+            this.start = owner.next;
+        }
+    }  //  end class Scope
+
+    // where global names get their slots
+    private final Environment globals;
 
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private final ErrorReporter reporter;
 
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    private final Stack<Scope> scopes = new Stack<>();
+
+    // declarations of the locals closures capture, found before resolving
+    private Set<Token> captured = null;
+
+    private FunctionType currentFunction = FunctionType.NONE;
+
+    Resolver(Environment globals, ErrorReporter reporter) {
+        this.globals = globals;
+        this.reporter = reporter;
     }
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
-        beginScope();
+        // nothing to hold, as in the block a for loop runs each time around
+        if (!declares(stmt.statements)) {
+            stmt.scoped = false;
+            resolve(stmt.statements);
+            return null;
+        }
+
+        stmt.scoped = scopes.isEmpty() || declaresCaptured(stmt.statements);
+        beginScope(stmt.scoped);
         resolve(stmt.statements);
+        countedLoop(stmt);
+        stmt.slots = scopes.peek().size;
         endScope();
         return null;
     }  //  end method visitBlockStatement
 
+    private static boolean declares(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Var || statement instanceof Stmt.Function)
+                return true;
+        }
+        return false;
+    }  //  end method declares
+
+    private boolean declaresCaptured(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Var var && captured.contains(var.name))
+                return true;
+            if (statement instanceof Stmt.Function function && captured.contains(function.name))
+                return true;
+        }
+        return false;
+    }  //  end method declaresCaptured
+
+    /**
+     * Mark the loop of a resolved block shaped like
+     *
+     *     for (var i = start; i < limit; i = i + 1) body
+     *
+     * as counted by i, when limit is a number or a variable and i is
+     * neither captured nor assigned anywhere but the increment. The
+     * interpreters can then keep i in a double of their own, writing it to
+     * its slot for the body to read.
+     */
+    private void countedLoop(Stmt.Block block) {
+        if (block.statements.size() != 2) return;
+        if (!(block.statements.get(0) instanceof Stmt.Var var)) return;
+        if (!(block.statements.get(1) instanceof Stmt.While loop)) return;
+        if (var.initializer == null || captured.contains(var.name)) return;
+        if (scopes.peek().locals.get(var.name.lexeme).assignments != 1) return;
+
+        if (!(loop.condition instanceof Expr.Binary condition)) return;
+        if (condition.operator.type != TokenType.LESS) return;
+        if (!isLocal(condition.left, var)) return;
+        if (!(condition.right instanceof Expr.Variable
+                || condition.right instanceof Expr.Literal limit
+                        && limit.value instanceof Double)) return;
+
+        if (!(loop.body instanceof Stmt.Block body) || body.scoped) return;
+        if (body.statements.size() != 2) return;
+        if (!(body.statements.get(1) instanceof Stmt.Expression increment)) return;
+        if (!(increment.expression instanceof Expr.Assign assign)) return;
+        if (!assign.name.lexeme.equals(var.name.lexeme) || assign.depth != 0) return;
+        if (!(assign.value instanceof Expr.Binary step)) return;
+        if (step.operator.type != TokenType.PLUS || !isLocal(step.left, var)) return;
+        if (!(step.right instanceof Expr.Literal one) || !Double.valueOf(1).equals(one.value))
+            return;
+
+        loop.counter = (Expr.Variable) condition.left;
+    }  //  end method countedLoop
+
+    // whether expr reads the local var declares, in its own environment
+    private static boolean isLocal(Expr expr, Stmt.Var var) {
+        return expr instanceof Expr.Variable variable
+                && variable.name.lexeme.equals(var.name.lexeme)
+                && variable.depth == 0 && variable.slot == var.slot;
+    }  //  end method isLocal
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        resolve(stmt.expression);
+        return null;
+    }  //  end method visitExpressionStmt
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        stmt.slot = declare(stmt.name);
+        define(stmt.name);
+
+        resolveFunction(stmt, FunctionType.FUNCTION);
+        return null;
+    }  //  end method visitFunctionStmt
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.thenBranch);
+        if (stmt.elseBranch != null) resolve(stmt.elseBranch);
+        return null;
+    }  //  end method visitIfStmt
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        resolve(stmt.expression);
+        return null;
+    }  //  end method visitPrintStmt
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (currentFunction == FunctionType.NONE)
+            reporter.error(stmt.keyword, "Can't return from top-level code.");
+
+        if (stmt.value != null) resolve(stmt.value);
+        return null;
+    }  //  end method visitReturnStmt
+
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name);
         if (stmt.initializer != null)
             resolve(stmt.initializer);
 
@@ -35,7 +209,82 @@ public class Resolver implements
         return null;
     }  //  end method visitVarStmt
 
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.body);
+        return null;
+    }  //  end method visitWhileStmt
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        resolve(expr.value);
+
+        expr.depth = depth(expr.name);
+        expr.slot = slot(expr.name, expr.depth);
+        if (expr.depth != -1) local(expr.name).assignments++;
+        return null;
+    }  //  end method visitAssignExpr
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }  //  end method visitBinaryExpr
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        resolve(expr.callee);
+
+        for (Expr argument : expr.arguments) {
+            resolve(argument);
+        }
+        return null;
+    }  //  end method visitCallExpr
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        resolve(expr.expression);
+        return null;
+    }  //  end method visitGroupingExpr
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }  //  end method visitLiteralExpr
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }  //  end method visitLogicalExpr
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        resolve(expr.right);
+        return null;
+    }  //  end method visitUnaryExpr
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        if (!scopes.isEmpty()) {
+            Local local = scopes.peek().locals.get(expr.name.lexeme);
+            if (local != null && !local.defined)
+                reporter.error(expr.name,
+                        "Can't read local variable in its own initializer.");
+        }
+
+        expr.depth = depth(expr.name);
+        expr.slot = slot(expr.name, expr.depth);
+        return null;
+    }  //  end method visitVariableExpr
+
     void resolve(List<Stmt> statements) {
+        // the program as a whole comes in first
+        if (captured == null) captured = new Captures().find(statements);
+
         for(Stmt statement: statements) {
             resolve(statement);
         }
@@ -49,13 +298,88 @@ public class Resolver implements
         expr.accept(this);
     }  //  end method resolve(expr)
 
+    private void resolveFunction(Stmt.Function function, FunctionType type) {
+        FunctionType enclosingFunction = currentFunction;
+        currentFunction = type;
+
+        // params and top level body declarations share one scope
+        beginScope(true);
+        for (Token param : function.params) {
+            declare(param);
+            define(param);
+        }
+        resolve(function.body);
+        function.slots = scopes.peek().size;
+        endScope();
+
+        currentFunction = enclosingFunction;
+    }  //  end method resolveFunction
 
-    void beginScope() {
-        scopes.push(new HashMap<>());
+    /**
+     * @param scoped whether the scope gets an environment of its own
+     */
+    void beginScope(boolean scoped) {
+        scopes.push(new Scope(scopes.isEmpty() ? null : scopes.peek(), scoped));
     }  //  end method beginScope
 
     void endScope() {
-        scopes.pop();
+        Scope scope = scopes.pop();
+        // slots of an unscoped block are free again once it ends
+        if (scope.owner != scope) scope.owner.next = scope.start;
     }  //  end method endScope
 
+    /**
+     * Reserve a slot for a new variable in the innermost scope.
+     *
+     * @return the slot index, in the global environment at top level
+     */
+    private int declare(Token name) {
+        if (scopes.isEmpty()) return globals.slot(name.lexeme);
+
+        Scope scope = scopes.peek();
+        if (scope.locals.containsKey(name.lexeme)) {
+            reporter.error(name, "Already a variable with this name in this scope.");
+            return scope.locals.get(name.lexeme).slot;
+        }
+
+        Scope owner = scope.owner;
+        Local local = new Local(owner, owner.next++);
+        owner.size = Math.max(owner.size, owner.next);
+        scope.locals.put(name.lexeme, local);
+        return local.slot;
+    }  //  end method declare
+
+    private void define(Token name) {
+        if (scopes.isEmpty()) return;
+        scopes.peek().locals.get(name.lexeme).defined = true;
+    }  //  end method define
+
+    private Local local(Token name) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            Local local = scopes.get(i).locals.get(name.lexeme);
+            if (local != null) return local;
+        }
+        return null;
+    }  //  end method local
+
+    /**
+     * Number of environments between the innermost one and the one holding
+     * name, or -1 for a global.
+     */
+    private int depth(Token name) {
+        Local local = local(name);
+        if (local == null) return -1;
+
+        int depth = 0;
+        for (int i = scopes.size() - 1; scopes.get(i) != local.owner; i--) {
+            if (scopes.get(i).owner == scopes.get(i)) depth++;
+        }
+        return depth;
+    }  //  end method depth
+
+    private int slot(Token name, int depth) {
+        if (depth == -1) return globals.slot(name.lexeme);
+        return local(name).slot;
+    }  //  end method slot
+
 }  //  end class Resolver
@@ -0,0 +1,127 @@
+package net.nehar.lox;
+
+import java.util.ArrayDeque;
+
+/**
+ * A Lox string made by +, kept as its two halves until its text is needed.
+ *
+ * Concatenating a String onto a String copies both, so building a string
+ * in a loop copies everything built so far on every pass. A Rope instead
+ * points at its halves, Strings or other Ropes, and only copies the leaves
+ * into one String when it is printed, compared or handed to a native. The
+ * text is then kept, so later uses and ropes built on this one copy it
+ * rather than walking the halves again.
+ *
+ * Short results are plain Strings, copying them is cheaper than a node.
+ * Lox strings are therefore Strings or Ropes: test with isString, and
+ * compare through Interpreter.isEqual.
+ */
+final class Rope implements CharSequence {
+
+    // concatenations shorter than this are copied right away
+    private static final int MIN_LENGTH = 256;
+
+    private final Object left;
+    private final Object right;
+    private final int length;
+
+    // the whole text once flattened; racing threads build equal Strings
+    private String text = null;
+
+    private Rope(Object left, Object right, int length) {
+        this.left = left;
+        this.right = right;
+        this.length = length;
+    }
+
+    static boolean isString(Object value) {
+        return value instanceof String || value instanceof Rope;
+    }  //  end method isString
+
+    /**
+     * Concatenate two Lox strings.
+     */
+    static Object concat(Object left, Object right) {
+        long length = (long) length(left) + length(right);
+        if (length > Integer.MAX_VALUE)
+            throw new OutOfMemoryError("Overflow: String length out of range");
+        if (length < MIN_LENGTH) return left.toString() + right;
+        return new Rope(left, right, (int) length);
+    }  //  end method concat
+
+    /**
+     * A Lox value with any Rope flattened to a String, for code that only
+     * knows about Strings.
+     */
+    static Object flatten(Object value) {
+        return value instanceof Rope rope ? rope.toString() : value;
+    }  //  end method flatten
+
+    private static int length(Object string) {
+        return string instanceof Rope rope ? rope.length : ((String) string).length();
+    }  //  end method length(string)
+
+    @Override
+    public int length() {
+        return length;
+    }  //  end method length
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }  //  end method charAt
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }  //  end method subSequence
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Rope rope && toString().equals(rope.toString());
+    }  //  end method equals
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }  //  end method hashCode
+
+    @Override
+    public String toString() {
+        String text = this.text;
+        if (text == null) {
+            text = copyLeaves();
+            this.text = text;
+        }
+        return text;
+    }  //  end method toString
+
+    /**
+     * Copy the leaves into one String. The leaves are visited right to left
+     * and copied in from the end, with the left halves waiting on a stack,
+     * so the left-deep rope a loop builds needs one stack entry at a time.
+     */
+    private String copyLeaves() {
+        char[] chars = new char[length];
+        int end = length;
+
+        ArrayDeque<Object> lefts = new ArrayDeque<>();
+        Object node = this;
+        for (;;) {
+            if (node instanceof Rope rope && rope.text == null) {
+                lefts.push(rope.left);
+                node = rope.right;
+                continue;
+            }
+
+            String leaf = node.toString();
+            end -= leaf.length();
+            leaf.getChars(0, leaf.length(), chars, end);
+
+            if (lefts.isEmpty()) break;
+            node = lefts.pop();
+        }
+        return new String(chars);
+    }  //  end method copyLeaves
+
+}  //  end class Rope
@@ -9,4 +9,12 @@ public class RuntimeError extends RuntimeException{
         this.token = token;
     }
 
+    /**
+     * Error raised by a native, which does not know where it was called
+     * from. The call site throws it again with its own token.
+     */
+    RuntimeError(String message) {
+        this(null, message);
+    }
+
 }  //  end class RuntimeError
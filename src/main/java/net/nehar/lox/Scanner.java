@@ -1,54 +1,135 @@
 package net.nehar.lox;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+
+/**
+ * Turns source text into tokens, one at a time as the parser asks for them.
+ *
+ * Source read from a Reader only ever sits in a window of the input that
+ * starts at the token being scanned: whenever more is needed, what is
+ * before the token is dropped and the window refilled, so a script is
+ * never held in memory as a whole, as chars or as tokens.
+ *
+ * Tokens that are always spelled the same way share one lexeme string,
+ * and every use of an identifier shares the String of its first use.
+ * Keywords are told apart from identifiers by looking at the characters
+ * in the buffer, without making a String first.
+ */
+public class Scanner {
 
+    private static final int WINDOW = 8192;
 
-public class Scanner {
+    final ErrorReporter reporter;
+
+    // null when the whole source is already in the buffer
+    private final Reader reader;
+    private char[] buffer;
+    private int limit;
 
-    private final String source;
-    private final List<Token> tokens = new ArrayList<>();
     private int start = 0;
     private int current = 0;
     private int line = 1;
 
-    private static final Map<String, TokenType> keywords;
+    // token made by the last scanToken, type is null if it made none
+    private TokenType type;
+    private String lexeme;
+
+    // identifiers seen so far, open addressing on String.hashCode
+    private String[] symbols = new String[256];
+    private int symbolCount = 0;
+
+    // total nanoseconds spent in scan, only kept when timed
+    boolean timed = false;
+    long time = 0;
+
+    // lexemes of punctuation and keywords, by TokenType ordinal
+    private static final String[] lexemes = new String[TokenType.values().length];
     static {
-        keywords = new HashMap<>();
-        keywords.put("and", TokenType.AND);
-        keywords.put("class", TokenType.CLASS);
-        keywords.put("else", TokenType.ELSE);
-        keywords.put("false", TokenType.FALSE);
-        keywords.put("for", TokenType.FOR);
-        keywords.put("fun", TokenType.FUN);
-        keywords.put("if", TokenType.IF);
-        keywords.put("nil", TokenType.NIL);
-        keywords.put("or", TokenType.OR);
-        keywords.put("print", TokenType.PRINT);
-        keywords.put("return", TokenType.RETURN);
-        keywords.put("super", TokenType.SUPER);
-        keywords.put("this", TokenType.THIS);
-        keywords.put("true", TokenType.TRUE);
-        keywords.put("var", TokenType.VAR);
-        keywords.put("while", TokenType.WHILE);
+        lexemes[TokenType.LEFT_PAREN.ordinal()] = "(";
+        lexemes[TokenType.RIGHT_PAREN.ordinal()] = ")";
+        lexemes[TokenType.LEFT_BRACE.ordinal()] = "{";
+        lexemes[TokenType.RIGHT_BRACE.ordinal()] = "}";
+        lexemes[TokenType.COMMA.ordinal()] = ",";
+        lexemes[TokenType.DOT.ordinal()] = ".";
+        lexemes[TokenType.MINUS.ordinal()] = "-";
+        lexemes[TokenType.PLUS.ordinal()] = "+";
+        lexemes[TokenType.SEMICOLON.ordinal()] = ";";
+        lexemes[TokenType.SLASH.ordinal()] = "/";
+        lexemes[TokenType.STAR.ordinal()] = "*";
+        lexemes[TokenType.BANG.ordinal()] = "!";
+        lexemes[TokenType.BANG_EQUAL.ordinal()] = "!=";
+        lexemes[TokenType.EQUAL.ordinal()] = "=";
+        lexemes[TokenType.EQUAL_EQUAL.ordinal()] = "==";
+        lexemes[TokenType.GREATER.ordinal()] = ">";
+        lexemes[TokenType.GREATER_EQUAL.ordinal()] = ">=";
+        lexemes[TokenType.LESS.ordinal()] = "<";
+        lexemes[TokenType.LESS_EQUAL.ordinal()] = "<=";
+
+        for (TokenType type : TokenType.values()) {
+            if (type.ordinal() >= TokenType.AND.ordinal() && type != TokenType.EOF)
+                lexemes[type.ordinal()] = type.name().toLowerCase();
+        }
     }  //  end static block
 
-    Scanner(String source) {
-        this.source = source;
+    Scanner(String source, ErrorReporter reporter) {
+        this.reporter = reporter;
+        this.reader = null;
+        this.buffer = source.toCharArray();
+        this.limit = buffer.length;
     }  //  end constructor
 
-    List<Token> scanTokens() {
-        while(! isAtEnd()) {
-            // grab the next lexeme
-            start = current;
-            scanToken();
-        }
-        tokens.add(new Token(TokenType.EOF, "", null, line));
+    Scanner(Reader reader, ErrorReporter reporter) {
+        this.reporter = reporter;
+        this.reader = reader;
+        this.buffer = new char[WINDOW];
+        this.limit = 0;
+    }  //  end constructor(reader)
+
+    TokenBuffer scanTokens() {
+        TokenBuffer tokens = new TokenBuffer();
+        while (scan(tokens, Integer.MAX_VALUE)) ;
         return tokens;
     }  //  end scanTokens
 
+    /**
+     * Append up to count tokens to the buffer, the last being EOF once the
+     * source runs out.
+     *
+     * @return false once EOF has been added
+     */
+    boolean scan(TokenBuffer tokens, int count) {
+        if (!timed) return scanChunk(tokens, count);
+
+        long begin = System.nanoTime();
+        try {
+            return scanChunk(tokens, count);
+        } finally {
+            time += System.nanoTime() - begin;
+        }
+    }  //  end scan
+
+    private boolean scanChunk(TokenBuffer tokens, int count) {
+        for (int i = 0; i < count; i++) {
+            type = null;
+            while (type == null) {
+                if (isAtEnd()) {
+                    tokens.add(TokenType.EOF, "", line);
+                    return false;
+                }
+
+                // grab the next lexeme
+                start = current;
+                scanToken();
+            }
+            tokens.add(type, lexeme, line);
+        }
+        return true;
+    }  //  end scanChunk
+
     /**
      * All the lexemes
      *
@@ -80,12 +161,20 @@ public class Scanner {
                 addToken(match('=') ? TokenType.GREATER_EQUAL: TokenType.GREATER);
                 break;
             case '/':
+                // comments make no token, so none of their text has to
+                // stay in the buffer
                 if (match('/')) {
                     //comment
-                    while (peek() != '\n' && !isAtEnd()) advance();
+                    while (peek() != '\n' && !isAtEnd()) {
+                        advance();
+                        start = current;
+                    }
                 } else if (match('*')) {
                     // multi-line comment start
-                    while (peek() != '*' && peekNext() != '/' && !isAtEnd()) advance();
+                    while (peek() != '*' && peekNext() != '/' && !isAtEnd()) {
+                        advance();
+                        start = current;
+                    }
 
                 } else {
                     addToken(TokenType.SLASH);
@@ -110,14 +199,14 @@ public class Scanner {
                 } else if(isAlpha(c)) {
                     identifier();
                 } else {
-                    Lox.error(line, "Unexpected character");
+                    reporter.error(line, "Unexpected character");
                     break;
                 }
         }
     }  //  end scanToken
 
     private char advance() {
-        return source.charAt(current++);
+        return buffer[current++];
     }
 
     /**
@@ -128,7 +217,7 @@ public class Scanner {
     private char peek() {
         // lookahead
         if (isAtEnd()) return '\0';
-        return source.charAt(current);
+        return buffer[current];
     }
 
     /**
@@ -137,23 +226,29 @@ public class Scanner {
      * @return
      */
     private char peekNext() {
-        if (current + 1 >= source.length()) return '\0';
-        return source.charAt(current + 1);
+        while (current + 1 >= limit) {
+            if (!fill()) return '\0';
+        }
+        return buffer[current + 1];
     }
 
     private void addToken(TokenType type) {
-        addToken(type, null);
+        this.type = type;
+        this.lexeme = lexemes[type.ordinal()];
     }
 
-    private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+    /**
+     * Token whose lexeme has to be copied out of the source.
+     */
+    private void addTextToken(TokenType type) {
+        this.type = type;
+        this.lexeme = new String(buffer, start, current - start);
     }
 
     private boolean match(char expected) {
         if(isAtEnd()) return false;
 
-        if (source.charAt(current) != expected) return false;
+        if (buffer[current] != expected) return false;
 
         current ++;
         return true;
@@ -165,16 +260,15 @@ public class Scanner {
             advance();
         }
         if (isAtEnd()) {
-            Lox.error(line, "Unterminated string");
+            reporter.error(line, "Unterminated string");
             return;
         }
 
         // found closing "
         advance();
 
-        // grab and add string token, ignoring the "'s
-        String value = source.substring(start + 1, current - 1);
-        addToken(TokenType.STRING, value);
+        // the value, without the "'s, is taken from the lexeme when needed
+        addTextToken(TokenType.STRING);
     }
 
     private boolean isDigit(char c) {
@@ -193,11 +287,105 @@ public class Scanner {
 
     private void identifier() {
         while (isAlphaNumeric(peek())) advance();
-        String text = source.substring(start, current);
-        TokenType type = keywords.get(text);
-        if (type == null) type = TokenType.IDENTIFIER;
 
-        addToken(type);
+        TokenType type = identifierType();
+        if (type == TokenType.IDENTIFIER) {
+            this.type = type;
+            this.lexeme = symbol();
+        } else {
+            addToken(type);
+        }
+    }
+
+    /**
+     * Keyword spelled by the current lexeme, if any, found by switching on
+     * its leading characters.
+     */
+    private TokenType identifierType() {
+        switch (buffer[start]) {
+            case 'a': return keyword(1, "nd", TokenType.AND);
+            case 'c': return keyword(1, "lass", TokenType.CLASS);
+            case 'e': return keyword(1, "lse", TokenType.ELSE);
+            case 'f':
+                if (current - start > 1) {
+                    switch (buffer[start + 1]) {
+                        case 'a': return keyword(2, "lse", TokenType.FALSE);
+                        case 'o': return keyword(2, "r", TokenType.FOR);
+                        case 'u': return keyword(2, "n", TokenType.FUN);
+                    }
+                }
+                break;
+            case 'i': return keyword(1, "f", TokenType.IF);
+            case 'n': return keyword(1, "il", TokenType.NIL);
+            case 'o': return keyword(1, "r", TokenType.OR);
+            case 'p': return keyword(1, "rint", TokenType.PRINT);
+            case 'r': return keyword(1, "eturn", TokenType.RETURN);
+            case 's': return keyword(1, "uper", TokenType.SUPER);
+            case 't':
+                if (current - start > 1) {
+                    switch (buffer[start + 1]) {
+                        case 'h': return keyword(2, "is", TokenType.THIS);
+                        case 'r': return keyword(2, "ue", TokenType.TRUE);
+                    }
+                }
+                break;
+            case 'v': return keyword(1, "ar", TokenType.VAR);
+            case 'w': return keyword(1, "hile", TokenType.WHILE);
+        }
+        return TokenType.IDENTIFIER;
+    }
+
+    private TokenType keyword(int offset, String rest, TokenType type) {
+        if (current - start != offset + rest.length()) return TokenType.IDENTIFIER;
+
+        for (int i = 0; i < rest.length(); i++) {
+            if (buffer[start + offset + i] != rest.charAt(i)) return TokenType.IDENTIFIER;
+        }
+        return type;
+    }
+
+    /**
+     * The shared String for the identifier in the current lexeme.
+     */
+    private String symbol() {
+        int length = current - start;
+        int hash = 0;
+        for (int i = start; i < current; i++) {
+            hash = 31 * hash + buffer[i];
+        }
+
+        int mask = symbols.length - 1;
+        int index = hash & mask;
+        for (String symbol = symbols[index]; symbol != null; symbol = symbols[index]) {
+            if (symbol.hashCode() == hash && isLexeme(symbol)) return symbol;
+            index = (index + 1) & mask;
+        }
+
+        String symbol = new String(buffer, start, length);
+        symbols[index] = symbol;
+        if (++symbolCount * 2 > symbols.length) growSymbols();
+        return symbol;
+    }
+
+    private boolean isLexeme(String text) {
+        if (text.length() != current - start) return false;
+
+        for (int i = 0; i < text.length(); i++) {
+            if (buffer[start + i] != text.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private void growSymbols() {
+        String[] old = symbols;
+        symbols = new String[old.length * 2];
+        int mask = symbols.length - 1;
+        for (String symbol : old) {
+            if (symbol == null) continue;
+            int index = symbol.hashCode() & mask;
+            while (symbols[index] != null) index = (index + 1) & mask;
+            symbols[index] = symbol;
+        }
     }
 
     private void number() {
@@ -211,12 +399,47 @@ public class Scanner {
 
         while (isDigit((peek()))) advance();
 
-        addToken(TokenType.NUMBER, Double.parseDouble(source.substring(start, current)));
+        // parsed from the lexeme when needed
+        addTextToken(TokenType.NUMBER);
 
     }  //  end number
 
     private boolean isAtEnd() {
-        return current >= source.length();
+        return current >= limit && !fill();
     }  //  end isAtEnd
 
+    /**
+     * Read more of the source into the buffer, first dropping what comes
+     * before the current lexeme. Indexes into the buffer move with it.
+     *
+     * @return whether anything was read
+     */
+    private boolean fill() {
+        if (reader == null) return false;
+
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, limit - start);
+            limit -= start;
+            current -= start;
+            start = 0;
+        }
+
+        // a lexeme bigger than the window, or no room for a surrogate pair
+        if (buffer.length - limit < 2)
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+
+        try {
+            int read;
+            do {
+                read = reader.read(buffer, limit, buffer.length - limit);
+            } while (read == 0);
+            if (read < 0) return false;
+
+            limit += read;
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }  //  end fill
+
 }  //  end class Scanner
@@ -0,0 +1,469 @@
+package net.nehar.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * On-disk cache of parsed scripts, so running an unchanged script again
+ * skips scanning and parsing.
+ *
+ * Entries are named by a hash of the cache format version and the script's
+ * bytes, so an edited script or a jlox with a different AST simply misses.
+ * An entry holds the syntax tree in a compact binary form, every name,
+ * token and line included, and is read back into the same tree the parser
+ * would have built. Resolution, optimization and execution then run as
+ * usual, so errors are reported exactly as on a fresh parse. Only scripts
+ * that parsed without errors are stored.
+ *
+ * The cache is best effort: an entry that cannot be read or written is
+ * ignored.
+ */
+class ScriptCache {
+
+    // bump whenever Expr, Stmt, TokenType or this encoding change
+    static final int VERSION = 2;
+
+    private static final int MAGIC = 0x4c4f5843;   // "LOXC"
+
+    // node tags, NONE stands for a missing optional child
+    private static final byte NONE = 0;
+    private static final byte ASSIGN = 1;
+    private static final byte BINARY = 2;
+    private static final byte CALL = 3;
+    private static final byte GROUPING = 4;
+    private static final byte NIL = 5;
+    private static final byte TRUE = 6;
+    private static final byte FALSE = 7;
+    private static final byte NUMBER = 8;
+    private static final byte STRING = 9;
+    private static final byte LOGICAL = 10;
+    private static final byte UNARY = 11;
+    private static final byte VARIABLE = 12;
+    private static final byte BLOCK = 13;
+    private static final byte EXPRESSION = 14;
+    private static final byte FUNCTION = 15;
+    private static final byte IF = 16;
+    private static final byte PRINT = 17;
+    private static final byte RETURN = 18;
+    private static final byte VAR = 19;
+    private static final byte WHILE = 20;
+
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final Path directory;
+
+    ScriptCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Cache key for a script, leaving the buffer's position alone.
+     */
+    String key(ByteBuffer script) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(ByteBuffer.allocate(4).putInt(VERSION).flip());
+        digest.update(script.duplicate());
+
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(Character.forDigit((b >> 4) & 0xf, 16));
+            key.append(Character.forDigit(b & 0xf, 16));
+        }
+        return key.toString();
+    }  //  end method key
+
+    /**
+     * @return the cached statements, or null if there is no usable entry
+     */
+    List<Stmt> load(String key) {
+        Path file = directory.resolve(key + ".loxc");
+        if (!Files.isRegularFile(file)) return null;
+
+        try {
+            return new Reader(ByteBuffer.wrap(Files.readAllBytes(file))).statements();
+        } catch (IOException | RuntimeException e) {
+            // unreadable or corrupt, parse the script instead
+            return null;
+        }
+    }  //  end method load
+
+    void store(String key, List<Stmt> statements) {
+        Path temporary = null;
+        try {
+            Files.createDirectories(directory);
+            temporary = Files.createTempFile(directory, key, ".tmp");
+            try (OutputStream out = Files.newOutputStream(temporary)) {
+                new Writer().write(statements, out);
+            }
+            // readers only ever see a complete entry
+            Files.move(temporary, directory.resolve(key + ".loxc"),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | UncheckedIOException e) {
+            // running the script does not depend on the cache, but a failed
+            // write must not leave its temporary file behind
+            if (temporary != null) {
+                try {
+                    Files.deleteIfExists(temporary);
+                } catch (IOException ignored) {
+                    // nothing more to do
+                }
+            }
+        }
+    }  //  end method store
+
+    /**
+     * Writes the header, the string table and then the tree, pre-order.
+     */
+    private static class Writer implements
+            Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream tree = new DataOutputStream(bytes);
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final List<String> table = new ArrayList<>();
+
+        void write(List<Stmt> statements, OutputStream out) throws IOException {
+            writeStatements(statements);
+
+            DataOutputStream header = new DataOutputStream(out);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            header.writeInt(table.size());
+            for (String string : table) {
+                byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+                header.writeInt(utf8.length);
+                header.write(utf8);
+            }
+            header.flush();
+            bytes.writeTo(out);
+        }  //  end method write
+
+        private void writeStatements(List<Stmt> statements) {
+            writeInt(statements.size());
+            for (Stmt statement : statements) {
+                statement.accept(this);
+            }
+        }  //  end method writeStatements
+
+        private void write(Expr expr) {
+            if (expr == null) writeByte(NONE);
+            else expr.accept(this);
+        }  //  end method write(expr)
+
+        private void write(Stmt stmt) {
+            if (stmt == null) writeByte(NONE);
+            else stmt.accept(this);
+        }  //  end method write(stmt)
+
+        private void write(Token token) {
+            writeByte(token.type.ordinal());
+            writeString(token.lexeme);
+            writeInt(token.line);
+        }  //  end method write(token)
+
+        private void writeString(String string) {
+            Integer index = strings.get(string);
+            if (index == null) {
+                index = table.size();
+                strings.put(string, index);
+                table.add(string);
+            }
+            writeInt(index);
+        }  //  end method writeString
+
+        private void writeByte(int value) {
+            try {
+                tree.writeByte(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }  //  end method writeByte
+
+        /**
+         * Write a non-negative int seven bits at a time, low bits first, so
+         * lines, counts and string indexes mostly take a byte or two.
+         */
+        private void writeInt(int value) {
+            while ((value & ~0x7f) != 0) {
+                writeByte((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            writeByte(value);
+        }  //  end method writeInt
+
+        private void writeDouble(double value) {
+            try {
+                tree.writeDouble(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }  //  end method writeDouble
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            writeByte(ASSIGN);
+            write(expr.name);
+            write(expr.value);
+            return null;
+        }  //  end method visitAssignExpr
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            writeByte(BINARY);
+            write(expr.left);
+            write(expr.operator);
+            write(expr.right);
+            return null;
+        }  //  end method visitBinaryExpr
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            writeByte(CALL);
+            write(expr.callee);
+            write(expr.paren);
+            writeInt(expr.arguments.size());
+            for (Expr argument : expr.arguments) {
+                write(argument);
+            }
+            return null;
+        }  //  end method visitCallExpr
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            writeByte(GROUPING);
+            write(expr.expression);
+            return null;
+        }  //  end method visitGroupingExpr
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            Object value = expr.value;
+            if (value == null) {
+                writeByte(NIL);
+            } else if (value instanceof Boolean) {
+                writeByte((boolean) value ? TRUE : FALSE);
+            } else if (value instanceof Double) {
+                writeByte(NUMBER);
+                writeDouble((double) value);
+            } else {
+                writeByte(STRING);
+                writeString((String) value);
+            }
+            return null;
+        }  //  end method visitLiteralExpr
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            writeByte(LOGICAL);
+            write(expr.left);
+            write(expr.operator);
+            write(expr.right);
+            return null;
+        }  //  end method visitLogicalExpr
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            writeByte(UNARY);
+            write(expr.operator);
+            write(expr.right);
+            return null;
+        }  //  end method visitUnaryExpr
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            writeByte(VARIABLE);
+            write(expr.name);
+            return null;
+        }  //  end method visitVariableExpr
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            writeByte(BLOCK);
+            writeStatements(stmt.statements);
+            return null;
+        }  //  end method visitBlockStmt
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            writeByte(EXPRESSION);
+            write(stmt.expression);
+            return null;
+        }  //  end method visitExpressionStmt
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            writeByte(FUNCTION);
+            write(stmt.name);
+            writeInt(stmt.params.size());
+            for (Token param : stmt.params) {
+                write(param);
+            }
+            writeStatements(stmt.body);
+            return null;
+        }  //  end method visitFunctionStmt
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            writeByte(IF);
+            write(stmt.condition);
+            write(stmt.thenBranch);
+            write(stmt.elseBranch);
+            return null;
+        }  //  end method visitIfStmt
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            writeByte(PRINT);
+            write(stmt.expression);
+            return null;
+        }  //  end method visitPrintStmt
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            writeByte(RETURN);
+            write(stmt.keyword);
+            write(stmt.value);
+            return null;
+        }  //  end method visitReturnStmt
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            writeByte(VAR);
+            write(stmt.name);
+            write(stmt.initializer);
+            return null;
+        }  //  end method visitVarStmt
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            writeByte(WHILE);
+            write(stmt.keyword);
+            write(stmt.condition);
+            write(stmt.body);
+            return null;
+        }  //  end method visitWhileStmt
+
+    }  //  end class Writer
+
+    /**
+     * Rebuilds the tree from an entry, failing with a RuntimeException on
+     * anything malformed.
+     */
+    private static class Reader {
+
+        private final ByteBuffer in;
+        private final String[] strings;
+
+        Reader(ByteBuffer in) {
+            this.in = in;
+            if (in.getInt() != MAGIC || in.getInt() != VERSION)
+                throw new IllegalArgumentException("Not a cache entry.");
+
+            strings = new String[in.getInt()];
+            for (int i = 0; i < strings.length; i++) {
+                int length = in.getInt();
+                strings[i] = new String(in.array(), in.position(), length,
+                        StandardCharsets.UTF_8);
+                in.position(in.position() + length);
+            }
+        }
+
+        List<Stmt> statements() {
+            int count = readInt();
+            List<Stmt> statements = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                statements.add(statement());
+            }
+            return statements;
+        }  //  end method statements
+
+        private Token token() {
+            TokenType type = TYPES[in.get()];
+            String lexeme = strings[readInt()];
+            return new Token(type, lexeme, null, readInt());
+        }  //  end method token
+
+        private int readInt() {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = in.get();
+                value |= (b & 0x7f) << shift;
+                if (b >= 0) return value;
+            }
+        }  //  end method readInt
+
+        private Stmt statement() {
+            byte tag = in.get();
+            return switch (tag) {
+                case NONE -> null;
+                case BLOCK -> new Stmt.Block(statements());
+                case EXPRESSION -> new Stmt.Expression(expression());
+                case FUNCTION -> {
+                    Token name = token();
+                    int arity = readInt();
+                    List<Token> params = new ArrayList<>(arity);
+                    for (int i = 0; i < arity; i++) {
+                        params.add(token());
+                    }
+                    yield new Stmt.Function(name, params, statements());
+                }
+                case IF -> new Stmt.If(expression(), statement(), statement());
+                case PRINT -> new Stmt.Print(expression());
+                case RETURN -> new Stmt.Return(token(), expression());
+                case VAR -> new Stmt.Var(token(), expression());
+                case WHILE -> new Stmt.While(token(), expression(), statement());
+                default -> throw new IllegalArgumentException("Bad statement tag " + tag);
+            };
+        }  //  end method statement
+
+        private Expr expression() {
+            byte tag = in.get();
+            return switch (tag) {
+                case NONE -> null;
+                case ASSIGN -> new Expr.Assign(token(), expression());
+                case BINARY -> new Expr.Binary(expression(), token(), expression());
+                case CALL -> {
+                    Expr callee = expression();
+                    Token paren = token();
+                    int count = readInt();
+                    List<Expr> arguments = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        arguments.add(expression());
+                    }
+                    yield new Expr.Call(callee, paren, arguments);
+                }
+                case GROUPING -> new Expr.Grouping(expression());
+                case NIL -> new Expr.Literal(null);
+                case TRUE -> new Expr.Literal(true);
+                case FALSE -> new Expr.Literal(false);
+                case NUMBER -> new Expr.Literal(in.getDouble());
+                case STRING -> new Expr.Literal(strings[readInt()]);
+                case LOGICAL -> new Expr.Logical(expression(), token(), expression());
+                case UNARY -> new Expr.Unary(token(), expression());
+                case VARIABLE -> new Expr.Variable(token());
+                default -> throw new IllegalArgumentException("Bad expression tag " + tag);
+            };
+        }  //  end method expression
+
+    }  //  end class Reader
+
+}  //  end class ScriptCache
@@ -0,0 +1,74 @@
+package net.nehar.lox;
+
+/**
+ * Operand type specializations for Binary and Unary nodes, used by the
+ * Interpreter's specializing mode.
+ *
+ * A node starts out UNINITIALIZED, rewrites itself to the variant matching
+ * the operand types it sees on its first evaluation, and falls back to
+ * GENERIC for good the first time those types change.
+ */
+final class Specialization {
+
+    private Specialization() {}
+
+    static final int UNINITIALIZED = 0;
+    static final int GENERIC = 1;
+
+    // number, number
+    static final int NUMBER_ADD = 2;
+    static final int NUMBER_SUBTRACT = 3;
+    static final int NUMBER_MULTIPLY = 4;
+    static final int NUMBER_DIVIDE = 5;
+    static final int NUMBER_GREATER = 6;
+    static final int NUMBER_GREATER_EQUAL = 7;
+    static final int NUMBER_LESS = 8;
+    static final int NUMBER_LESS_EQUAL = 9;
+    static final int NUMBER_EQUAL = 10;
+    static final int NUMBER_NOT_EQUAL = 11;
+
+    // string, string
+    static final int STRING_ADD = 12;
+    static final int STRING_EQUAL = 13;
+    static final int STRING_NOT_EQUAL = 14;
+
+    // unary
+    static final int NUMBER_NEGATE = 15;
+    static final int BOOLEAN_NOT = 16;
+
+    static int binary(TokenType operator, Object left, Object right) {
+        if (left == Environment.NUMBER && right == Environment.NUMBER) {
+            return switch (operator) {
+                case PLUS -> NUMBER_ADD;
+                case MINUS -> NUMBER_SUBTRACT;
+                case STAR -> NUMBER_MULTIPLY;
+                case SLASH -> NUMBER_DIVIDE;
+                case GREATER -> NUMBER_GREATER;
+                case GREATER_EQUAL -> NUMBER_GREATER_EQUAL;
+                case LESS -> NUMBER_LESS;
+                case LESS_EQUAL -> NUMBER_LESS_EQUAL;
+                case EQUAL_EQUAL -> NUMBER_EQUAL;
+                case BANG_EQUAL -> NUMBER_NOT_EQUAL;
+                default -> GENERIC;
+            };
+        }
+
+        if (Rope.isString(left) && Rope.isString(right)) {
+            return switch (operator) {
+                case PLUS -> STRING_ADD;
+                case EQUAL_EQUAL -> STRING_EQUAL;
+                case BANG_EQUAL -> STRING_NOT_EQUAL;
+                default -> GENERIC;
+            };
+        }
+
+        return GENERIC;
+    }  //  end method binary
+
+    static int unary(TokenType operator, Object right) {
+        if (operator == TokenType.MINUS && right == Environment.NUMBER) return NUMBER_NEGATE;
+        if (operator == TokenType.BANG && right instanceof Boolean) return BOOLEAN_NOT;
+        return GENERIC;
+    }  //  end method unary
+
+}  //  end class Specialization
@@ -2,8 +2,8 @@ package net.nehar.lox;
 
 import java.util.List;
 
-abstract class Stmt {
-    interface Visitor<R> {
+public abstract class Stmt {
+    public interface Visitor<R> {
         R visitBlockStmt(Block stmt);
         R visitExpressionStmt(Expression stmt);
         R visitFunctionStmt(Function stmt);
@@ -14,33 +14,35 @@ abstract class Stmt {
         R visitWhileStmt(While stmt);
     }  //  end interface Visitor
 
-    static class Block extends Stmt {
+    public static class Block extends Stmt {
         Block(List<Stmt> statements) {
             this.statements = statements;
         } //  end constructor
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitBlockStmt(this);
         }
 
-        final List<Stmt> statements;
+        public final List<Stmt> statements;
+        int slots;
+        boolean scoped;
     }  //  end class Block
 
-    static class Expression extends Stmt {
+    public static class Expression extends Stmt {
         Expression(Expr expression) {
             this.expression = expression;
         } //  end constructor
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitExpressionStmt(this);
         }
 
-        final Expr expression;
+        public final Expr expression;
     }  //  end class Expression
 
-    static class Function extends Stmt {
+    public static class Function extends Stmt {
         Function(Token name, List<Token> params, List<Stmt> body) {
             this.name = name;
             this.params = params;
@@ -48,16 +50,21 @@ abstract class Stmt {
         } //  end constructor
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitFunctionStmt(this);
         }
 
-        final Token name;
-        final List<Token> params;
-        final List<Stmt> body;
+        public final Token name;
+        public final List<Token> params;
+        public final List<Stmt> body;
+        int slot;
+        int slots;
+        boolean leaf;
+        int calls;
+        Jit.Node compiled;
     }  //  end class Function
 
-    static class If extends Stmt {
+    public static class If extends Stmt {
         If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
             this.condition = condition;
             this.thenBranch = thenBranch;
@@ -65,73 +72,77 @@ abstract class Stmt {
         } //  end constructor
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitIfStmt(this);
         }
 
-        final Expr condition;
-        final Stmt thenBranch;
-        final Stmt elseBranch;
+        public final Expr condition;
+        public final Stmt thenBranch;
+        public final Stmt elseBranch;
     }  //  end class If
 
-    static class Print extends Stmt {
+    public static class Print extends Stmt {
         Print(Expr expression) {
             this.expression = expression;
         } //  end constructor
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitPrintStmt(this);
         }
 
-        final Expr expression;
+        public final Expr expression;
     }  //  end class Print
 
-    static class Return extends Stmt {
+    public static class Return extends Stmt {
         Return(Token keyword, Expr value) {
             this.keyword = keyword;
             this.value = value;
         } //  end constructor
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitReturnStmt(this);
         }
 
-        final Token keyword;
-        final Expr value;
+        public final Token keyword;
+        public final Expr value;
     }  //  end class Return
 
-    static class Var extends Stmt {
+    public static class Var extends Stmt {
         Var(Token name, Expr initializer) {
             this.name = name;
             this.initializer = initializer;
         } //  end constructor
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitVarStmt(this);
         }
 
-        final Token name;
-        final Expr initializer;
+        public final Token name;
+        public final Expr initializer;
+        int slot;
     }  //  end class Var
 
-    static class While extends Stmt {
-        While(Expr condition, Stmt body) {
+    public static class While extends Stmt {
+        While(Token keyword, Expr condition, Stmt body) {
+            this.keyword = keyword;
             this.condition = condition;
             this.body = body;
         } //  end constructor
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitWhileStmt(this);
         }
 
-        final Expr condition;
-        final Stmt body;
+        public final Token keyword;
+        public final Expr condition;
+        public final Stmt body;
+        Expr.Variable counter;
     }  //  end class While
 
-    abstract <R> R accept(Visitor<R> visitor);
+    public abstract <R> R accept(Visitor<R> visitor);
 
 }  //  end abstract class Stmt
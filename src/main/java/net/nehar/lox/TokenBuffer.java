@@ -0,0 +1,88 @@
+package net.nehar.lox;
+
+import java.util.Arrays;
+
+/**
+ * Tokens stored column-wise, as parallel arrays of type ordinals, lines
+ * and lexemes, rather than as a Token object each.
+ *
+ * Lexemes of punctuation, keywords and identifiers are strings shared by
+ * every occurrence, so a token costs three array elements. Literal values
+ * are only decoded from the lexeme, and Token objects only made, when the
+ * parser asks for them.
+ */
+final class TokenBuffer {
+
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private int[] types;
+    private int[] lines;
+    private String[] lexemes;
+    private int size = 0;
+
+    TokenBuffer() {
+        this(256);
+    }  //  end constructor
+
+    TokenBuffer(int capacity) {
+        types = new int[capacity];
+        lines = new int[capacity];
+        lexemes = new String[capacity];
+    }  //  end constructor(capacity)
+
+    void add(TokenType type, String lexeme, int line) {
+        if (size == types.length) {
+            types = Arrays.copyOf(types, size * 2);
+            lines = Arrays.copyOf(lines, size * 2);
+            lexemes = Arrays.copyOf(lexemes, size * 2);
+        }
+        types[size] = type.ordinal();
+        lines[size] = line;
+        lexemes[size] = lexeme;
+        size++;
+    }  //  end method add
+
+    int size() {
+        return size;
+    }  //  end method size
+
+    TokenType type(int index) {
+        return TYPES[types[index]];
+    }  //  end method type
+
+    int line(int index) {
+        return lines[index];
+    }  //  end method line
+
+    String lexeme(int index) {
+        return lexemes[index];
+    }  //  end method lexeme
+
+    /**
+     * Value of a NUMBER or STRING token, null for any other.
+     */
+    Object literal(int index) {
+        String lexeme = lexemes[index];
+        return switch (TYPES[types[index]]) {
+            case NUMBER -> Double.parseDouble(lexeme);
+            case STRING -> lexeme.substring(1, lexeme.length() - 1);
+            default -> null;
+        };
+    }  //  end method literal
+
+    Token token(int index) {
+        return new Token(type(index), lexeme(index), literal(index), line(index));
+    }  //  end method token
+
+    /**
+     * Drop every token but the last, which moves to the front.
+     */
+    void keepLast() {
+        types[0] = types[size - 1];
+        lines[0] = lines[size - 1];
+        lexemes[0] = lexemes[size - 1];
+        Arrays.fill(lexemes, 1, size, null);
+        size = 1;
+    }  //  end method keepLast
+
+}  //  end class TokenBuffer
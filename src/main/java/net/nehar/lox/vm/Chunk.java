@@ -0,0 +1,106 @@
+package net.nehar.lox.vm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compiled sequence of instructions with its constant pools and line table.
+ *
+ * Numbers have a pool of their own so the VM can load them without boxing.
+ * The line table is run-length encoded: lineStarts[i] is the first code
+ * offset that belongs to lineNumbers[i].
+ */
+class Chunk {
+
+    int[] code = new int[16];
+    int count = 0;
+
+    Object[] constants;
+    private final List<Object> constantList = new ArrayList<>();
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+
+    double[] numbers = new double[8];
+    private int numberCount = 0;
+    private final Map<Long, Integer> numberIndex = new HashMap<>();
+
+    private int[] lineStarts = new int[8];
+    private int[] lineNumbers = new int[8];
+    private int lineCount = 0;
+
+    void write(int value, int line) {
+        if (count == code.length) code = Arrays.copyOf(code, count * 2);
+
+        if (lineCount == 0 || lineNumbers[lineCount - 1] != line) {
+            if (lineCount == lineStarts.length) {
+                lineStarts = Arrays.copyOf(lineStarts, lineCount * 2);
+                lineNumbers = Arrays.copyOf(lineNumbers, lineCount * 2);
+            }
+            lineStarts[lineCount] = count;
+            lineNumbers[lineCount] = line;
+            lineCount++;
+        }
+
+        code[count++] = value;
+    }  //  end method write
+
+    /**
+     * Add a constant to the pool, reusing the slot of an equal string.
+     *
+     * @return index of the constant
+     */
+    int addConstant(Object value) {
+        boolean shareable = value instanceof String;
+        if (shareable) {
+            Integer index = constantIndex.get(value);
+            if (index != null) return index;
+        }
+
+        constantList.add(value);
+        int index = constantList.size() - 1;
+        if (shareable) constantIndex.put(value, index);
+        return index;
+    }  //  end method addConstant
+
+    /**
+     * Add a number to the number pool, reusing the slot of an identical one.
+     *
+     * @return index of the number
+     */
+    int addNumber(double value) {
+        Long bits = Double.doubleToLongBits(value);
+        Integer index = numberIndex.get(bits);
+        if (index != null) return index;
+
+        if (numberCount == numbers.length)
+            numbers = Arrays.copyOf(numbers, numberCount * 2);
+        numbers[numberCount] = value;
+        numberIndex.put(bits, numberCount);
+        return numberCount++;
+    }  //  end method addNumber
+
+    int line(int offset) {
+        int low = 0;
+        int high = lineCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (lineStarts[mid] <= offset) low = mid;
+            else high = mid - 1;
+        }
+        return lineCount == 0 ? 0 : lineNumbers[low];
+    }  //  end method line
+
+    /**
+     * Trim the buffers once compilation of the owning function is done.
+     */
+    void seal() {
+        code = Arrays.copyOf(code, count);
+        constants = constantList.toArray();
+        numbers = Arrays.copyOf(numbers, numberCount);
+        lineStarts = Arrays.copyOf(lineStarts, lineCount);
+        lineNumbers = Arrays.copyOf(lineNumbers, lineCount);
+    }  //  end method seal
+
+}  //  end class Chunk
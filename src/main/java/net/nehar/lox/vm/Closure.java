@@ -0,0 +1,21 @@
+package net.nehar.lox.vm;
+
+/**
+ * Runtime function value: a Function plus the variables it captured.
+ */
+class Closure {
+
+    final Function function;
+    final Upvalue[] upvalues;
+
+    Closure(Function function) {
+        this.function = function;
+        this.upvalues = new Upvalue[function.upvalueCount];
+    }
+
+    @Override
+    public String toString() {
+        return function.toString();
+    }  //  end method toString
+
+}  //  end class Closure
@@ -0,0 +1,483 @@
+package net.nehar.lox.vm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.nehar.lox.Expr;
+import net.nehar.lox.Stmt;
+import net.nehar.lox.Token;
+import net.nehar.lox.TokenType;
+
+/**
+ * Single pass compiler from the resolved AST to VM bytecode.
+ *
+ * Locals live in VM stack slots relative to the frame base, slot 0 holds
+ * the function being called. Variables captured by closures are reached
+ * through upvalues, globals through slots handed out by the VM.
+ * Semantic errors are reported by the Resolver before we get here.
+ */
+public class Compiler implements
+        Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+    private static class Local {
+        final String name;
+        final int depth;
+        boolean captured = false;
+
+        Local(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }  //  end class Local
+
+    private static class UpvalueRef {
+        final boolean isLocal;
+        final int index;
+
+        UpvalueRef(boolean isLocal, int index) {
+            this.isLocal = isLocal;
+            this.index = index;
+        }
+    }  //  end class UpvalueRef
+
+    /**
+     * Compiler state for the function currently being compiled.
+     */
+    private static class FunctionState {
+        final FunctionState enclosing;
+        final Function function;
+        final List<Local> locals = new ArrayList<>();
+        final List<UpvalueRef> upvalues = new ArrayList<>();
+        int scopeDepth = 0;
+
+        // current operand stack height, locals included
+        int stack = 0;
+
+        FunctionState(FunctionState enclosing, Function function) {
+            this.enclosing = enclosing;
+            this.function = function;
+
+            // slot zero holds the callee
+            locals.add(new Local("", 0));
+            stack = 1;
+            function.maxStack = 1;
+        }
+    }  //  end class FunctionState
+
+    private final VM vm;
+
+    private FunctionState current;
+
+    private int line = 0;
+
+    public Compiler(VM vm) {
+        this.vm = vm;
+    }
+
+    /**
+     * Compile a whole program into the function the VM runs as the script.
+     */
+    public Function compile(List<Stmt> statements) {
+        current = new FunctionState(null, new Function(null, 0));
+        for (Stmt statement : statements) {
+            compile(statement);
+        }
+        emit(OpCode.NIL, 1);
+        emit(OpCode.RETURN, -1);
+
+        return endFunction();
+    }  //  end method compile
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        endScope();
+        return null;
+    }  //  end method visitBlockStmt
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        // assignment statements store and pop in one instruction
+        if (stmt.expression instanceof Expr.Assign assign) {
+            compile(assign.value);
+            emitStore(assign.name, true);
+            return null;
+        }
+
+        compile(stmt.expression);
+        emit(OpCode.POP, -1);
+        return null;
+    }  //  end method visitExpressionStmt
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        line = stmt.name.line;
+
+        // declare first so the body can refer to itself
+        if (current.scopeDepth > 0) addLocal(stmt.name);
+
+        current = new FunctionState(current,
+                new Function(stmt.name.lexeme, stmt.params.size()));
+        beginScope();
+        for (Token param : stmt.params) {
+            addLocal(param);
+            grow(1);
+        }
+        for (Stmt statement : stmt.body) {
+            compile(statement);
+        }
+        emit(OpCode.NIL, 1);
+        emit(OpCode.RETURN, -1);
+
+        List<UpvalueRef> upvalues = current.upvalues;
+        Function function = endFunction();
+
+        line = stmt.name.line;
+        emit(OpCode.CLOSURE, 1);
+        emitOperand(current.function.chunk.addConstant(function));
+        for (UpvalueRef upvalue : upvalues) {
+            emitOperand(upvalue.isLocal ? 1 : 0);
+            emitOperand(upvalue.index);
+        }
+
+        if (current.scopeDepth == 0) {
+            emit(OpCode.DEFINE_GLOBAL, -1);
+            emitOperand(vm.globalSlot(stmt.name.lexeme));
+        }
+        return null;
+    }  //  end method visitFunctionStmt
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+
+        int thenJump = emitJump(OpCode.POP_JUMP_IF_FALSE, -1);
+        compile(stmt.thenBranch);
+        if (stmt.elseBranch == null) {
+            patchJump(thenJump);
+            return null;
+        }
+
+        int elseJump = emitJump(OpCode.JUMP, 0);
+        patchJump(thenJump);
+        compile(stmt.elseBranch);
+        patchJump(elseJump);
+        return null;
+    }  //  end method visitIfStmt
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emit(OpCode.PRINT, -1);
+        return null;
+    }  //  end method visitPrintStmt
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        line = stmt.keyword.line;
+        if (stmt.value instanceof Expr.Call call) {
+            // the RETURN only runs if the callee turns out to be a native
+            compileCall(call, OpCode.TAIL_CALL);
+        } else if (stmt.value != null) {
+            compile(stmt.value);
+        } else {
+            emit(OpCode.NIL, 1);
+        }
+
+        line = stmt.keyword.line;
+        emit(OpCode.RETURN, -1);
+        return null;
+    }  //  end method visitReturnStmt
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        line = stmt.name.line;
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            emit(OpCode.NIL, 1);
+        }
+
+        // a local is simply the value left on the stack
+        if (current.scopeDepth > 0) {
+            addLocal(stmt.name);
+            return null;
+        }
+
+        line = stmt.name.line;
+        emit(OpCode.DEFINE_GLOBAL, -1);
+        emitOperand(vm.globalSlot(stmt.name.lexeme));
+        return null;
+    }  //  end method visitVarStmt
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = current.function.chunk.count;
+        compile(stmt.condition);
+
+        int exitJump = emitJump(OpCode.POP_JUMP_IF_FALSE, -1);
+        compile(stmt.body);
+        emit(OpCode.LOOP, 0);
+        emitOperand(loopStart);
+
+        patchJump(exitJump);
+        return null;
+    }  //  end method visitWhileStmt
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        emitStore(expr.name, false);
+        return null;
+    }  //  end method visitAssignExpr
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+
+        // number literal on the right comes straight from the pool
+        if (expr.right instanceof Expr.Literal literal &&
+                literal.value instanceof Double number) {
+            int op = switch (expr.operator.type) {
+                case PLUS -> OpCode.ADD_NUMBER;
+                case MINUS -> OpCode.SUBTRACT_NUMBER;
+                case LESS -> OpCode.LESS_NUMBER;
+                default -> -1;
+            };
+            if (op != -1) {
+                line = expr.operator.line;
+                emit(op, 0);
+                emitOperand(current.function.chunk.addNumber(number));
+                return null;
+            }
+        }
+
+        compile(expr.right);
+
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case GREATER -> emit(OpCode.GREATER, -1);
+            case GREATER_EQUAL -> emit(OpCode.GREATER_EQUAL, -1);
+            case LESS -> emit(OpCode.LESS, -1);
+            case LESS_EQUAL -> emit(OpCode.LESS_EQUAL, -1);
+            case BANG_EQUAL -> emit(OpCode.NOT_EQUAL, -1);
+            case EQUAL_EQUAL -> emit(OpCode.EQUAL, -1);
+            case MINUS -> emit(OpCode.SUBTRACT, -1);
+            case SLASH -> emit(OpCode.DIVIDE, -1);
+            case STAR -> emit(OpCode.MULTIPLY, -1);
+            case PLUS -> emit(OpCode.ADD, -1);
+            default -> throw new IllegalStateException(
+                    "Unexpected binary operator " + expr.operator.type);
+        }
+        return null;
+    }  //  end method visitBinaryExpr
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        compileCall(expr, OpCode.CALL);
+        return null;
+    }  //  end method visitCallExpr
+
+    private void compileCall(Expr.Call expr, int opcode) {
+        compile(expr.callee);
+        for (Expr argument : expr.arguments) {
+            compile(argument);
+        }
+
+        line = expr.paren.line;
+        emit(opcode, -expr.arguments.size());
+        emitOperand(expr.arguments.size());
+    }  //  end method compileCall
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }  //  end method visitGroupingExpr
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            emit(OpCode.NIL, 1);
+        } else if (expr.value instanceof Boolean) {
+            emit((boolean) expr.value ? OpCode.TRUE : OpCode.FALSE, 1);
+        } else if (expr.value instanceof Double) {
+            emit(OpCode.NUMBER, 1);
+            emitOperand(current.function.chunk.addNumber((double) expr.value));
+        } else {
+            emit(OpCode.CONSTANT, 1);
+            emitOperand(current.function.chunk.addConstant(expr.value));
+        }
+        return null;
+    }  //  end method visitLiteralExpr
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+
+        line = expr.operator.line;
+        if (expr.operator.type == TokenType.OR) {
+            // short-circuit out while the left side is truthy
+            int elseJump = emitJump(OpCode.JUMP_IF_FALSE, 0);
+            int endJump = emitJump(OpCode.JUMP, 0);
+            patchJump(elseJump);
+            emit(OpCode.POP, -1);
+            compile(expr.right);
+            patchJump(endJump);
+        } else {
+            int endJump = emitJump(OpCode.JUMP_IF_FALSE, 0);
+            emit(OpCode.POP, -1);
+            compile(expr.right);
+            patchJump(endJump);
+        }
+        return null;
+    }  //  end method visitLogicalExpr
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case MINUS -> emit(OpCode.NEGATE, 0);
+            case BANG -> emit(OpCode.NOT, 0);
+            default -> throw new IllegalStateException(
+                    "Unexpected unary operator " + expr.operator.type);
+        }
+        return null;
+    }  //  end method visitUnaryExpr
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        line = expr.name.line;
+        int slot = resolveLocal(current, expr.name.lexeme);
+        if (slot != -1) {
+            emit(OpCode.GET_LOCAL, 1);
+            emitOperand(slot);
+        } else if ((slot = resolveUpvalue(current, expr.name.lexeme)) != -1) {
+            emit(OpCode.GET_UPVALUE, 1);
+            emitOperand(slot);
+        } else {
+            emit(OpCode.GET_GLOBAL, 1);
+            emitOperand(vm.globalSlot(expr.name.lexeme));
+        }
+        return null;
+    }  //  end method visitVariableExpr
+
+    /**
+     * Store the value on top of the stack into a variable, popping it for
+     * assignment statements.
+     */
+    private void emitStore(Token name, boolean pop) {
+        line = name.line;
+        int slot = resolveLocal(current, name.lexeme);
+        if (slot != -1) {
+            emit(pop ? OpCode.SET_LOCAL_POP : OpCode.SET_LOCAL, pop ? -1 : 0);
+        } else if ((slot = resolveUpvalue(current, name.lexeme)) != -1) {
+            emit(pop ? OpCode.SET_UPVALUE_POP : OpCode.SET_UPVALUE, pop ? -1 : 0);
+        } else {
+            slot = vm.globalSlot(name.lexeme);
+            emit(pop ? OpCode.SET_GLOBAL_POP : OpCode.SET_GLOBAL, pop ? -1 : 0);
+        }
+        emitOperand(slot);
+    }  //  end method emitStore
+
+    private void compile(Stmt statement) {
+        statement.accept(this);
+    }  //  end method compile(stmt)
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }  //  end method compile(expr)
+
+    private Function endFunction() {
+        Function function = current.function;
+        function.upvalueCount = current.upvalues.size();
+        function.chunk.seal();
+        current = current.enclosing;
+        return function;
+    }  //  end method endFunction
+
+    private void beginScope() {
+        current.scopeDepth++;
+    }  //  end method beginScope
+
+    private void endScope() {
+        current.scopeDepth--;
+
+        List<Local> locals = current.locals;
+        while (!locals.isEmpty() &&
+                locals.get(locals.size() - 1).depth > current.scopeDepth) {
+            Local local = locals.remove(locals.size() - 1);
+            emit(local.captured ? OpCode.CLOSE_UPVALUE : OpCode.POP, -1);
+        }
+    }  //  end method endScope
+
+    private void addLocal(Token name) {
+        current.locals.add(new Local(name.lexeme, current.scopeDepth));
+    }  //  end method addLocal
+
+    private int resolveLocal(FunctionState state, String name) {
+        for (int i = state.locals.size() - 1; i >= 0; i--) {
+            if (state.locals.get(i).name.equals(name)) return i;
+        }
+        return -1;
+    }  //  end method resolveLocal
+
+    private int resolveUpvalue(FunctionState state, String name) {
+        if (state.enclosing == null) return -1;
+
+        int local = resolveLocal(state.enclosing, name);
+        if (local != -1) {
+            state.enclosing.locals.get(local).captured = true;
+            return addUpvalue(state, true, local);
+        }
+
+        int upvalue = resolveUpvalue(state.enclosing, name);
+        if (upvalue != -1) return addUpvalue(state, false, upvalue);
+
+        return -1;
+    }  //  end method resolveUpvalue
+
+    private int addUpvalue(FunctionState state, boolean isLocal, int index) {
+        for (int i = 0; i < state.upvalues.size(); i++) {
+            UpvalueRef upvalue = state.upvalues.get(i);
+            if (upvalue.isLocal == isLocal && upvalue.index == index) return i;
+        }
+        state.upvalues.add(new UpvalueRef(isLocal, index));
+        return state.upvalues.size() - 1;
+    }  //  end method addUpvalue
+
+    /**
+     * Emit an opcode, tracking how it moves the operand stack.
+     */
+    private void emit(int op, int stackEffect) {
+        current.function.chunk.write(op, line);
+        grow(stackEffect);
+    }  //  end method emit
+
+    private void emitOperand(int operand) {
+        current.function.chunk.write(operand, line);
+    }  //  end method emitOperand
+
+    private int emitJump(int op, int stackEffect) {
+        emit(op, stackEffect);
+        emitOperand(-1);
+        return current.function.chunk.count - 1;
+    }  //  end method emitJump
+
+    private void patchJump(int operand) {
+        Chunk chunk = current.function.chunk;
+        chunk.code[operand] = chunk.count;
+    }  //  end method patchJump
+
+    private void grow(int stackEffect) {
+        current.stack += stackEffect;
+        if (current.stack > current.function.maxStack)
+            current.function.maxStack = current.stack;
+    }  //  end method grow
+
+}  //  end class Compiler
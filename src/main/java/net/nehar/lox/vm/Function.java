@@ -0,0 +1,28 @@
+package net.nehar.lox.vm;
+
+/**
+ * A compiled Lox function, or the top level script.
+ */
+public class Function {
+
+    final String name;
+    final int arity;
+    final Chunk chunk = new Chunk();
+
+    int upvalueCount = 0;
+
+    // deepest the operand stack gets, locals included
+    int maxStack = 0;
+
+    Function(String name, int arity) {
+        this.name = name;
+        this.arity = arity;
+    }
+
+    @Override
+    public String toString() {
+        if (name == null) return "<script>";
+        return "<fn " + name + ">";
+    }  //  end method toString
+
+}  //  end class Function
@@ -0,0 +1,25 @@
+package net.nehar.lox.vm;
+
+/**
+ * A function implemented in Java and callable from Lox code.
+ */
+class NativeFunction {
+
+    interface Body {
+        Object call(Object[] arguments);
+    }
+
+    final int arity;
+    final Body body;
+
+    NativeFunction(int arity, Body body) {
+        this.arity = arity;
+        this.body = body;
+    }
+
+    @Override
+    public String toString() {
+        return "<native fn>";
+    }  //  end method toString
+
+}  //  end class NativeFunction
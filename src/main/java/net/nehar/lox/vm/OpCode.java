@@ -0,0 +1,69 @@
+package net.nehar.lox.vm;
+
+/**
+ * Instruction set for the bytecode VM.
+ *
+ * Opcodes and their operands are plain ints in Chunk.code, operands
+ * follow the opcode inline. Jump operands are absolute code offsets.
+ */
+final class OpCode {
+
+    private OpCode() {}
+
+    // constants and literals
+    static final int CONSTANT = 0;          // index
+    static final int NIL = 1;
+    static final int TRUE = 2;
+    static final int FALSE = 3;
+    static final int POP = 4;
+
+    // variables
+    static final int GET_LOCAL = 5;         // slot
+    static final int SET_LOCAL = 6;         // slot
+    static final int GET_GLOBAL = 7;        // global slot
+    static final int DEFINE_GLOBAL = 8;     // global slot
+    static final int SET_GLOBAL = 9;        // global slot
+    static final int GET_UPVALUE = 10;      // index
+    static final int SET_UPVALUE = 11;      // index
+
+    // operators
+    static final int EQUAL = 12;
+    static final int NOT_EQUAL = 13;
+    static final int GREATER = 14;
+    static final int GREATER_EQUAL = 15;
+    static final int LESS = 16;
+    static final int LESS_EQUAL = 17;
+    static final int ADD = 18;
+    static final int SUBTRACT = 19;
+    static final int MULTIPLY = 20;
+    static final int DIVIDE = 21;
+    static final int NOT = 22;
+    static final int NEGATE = 23;
+
+    // statements and control flow
+    static final int PRINT = 24;
+    static final int JUMP = 25;             // target
+    static final int JUMP_IF_FALSE = 26;    // target, leaves condition on the stack
+    static final int LOOP = 27;             // target
+
+    // functions
+    static final int CALL = 28;             // argument count
+    static final int CLOSURE = 29;          // index, then (isLocal, index) per upvalue
+    static final int CLOSE_UPVALUE = 30;
+    static final int RETURN = 31;
+
+    static final int NUMBER = 32;           // index into the number pool
+
+    // fused forms of common sequences
+    static final int POP_JUMP_IF_FALSE = 33;    // target, pops the condition
+    static final int SET_LOCAL_POP = 34;        // slot
+    static final int SET_GLOBAL_POP = 35;       // global slot
+    static final int SET_UPVALUE_POP = 36;      // index
+    static final int ADD_NUMBER = 37;           // index into the number pool
+    static final int SUBTRACT_NUMBER = 38;      // index into the number pool
+    static final int LESS_NUMBER = 39;          // index into the number pool
+
+    // a call whose result the caller returns, reuses the caller's frame
+    static final int TAIL_CALL = 40;        // argument count
+
+}  //  end class OpCode
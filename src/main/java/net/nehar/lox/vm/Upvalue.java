@@ -0,0 +1,22 @@
+package net.nehar.lox.vm;
+
+/**
+ * A captured variable. While open it points at a VM stack slot, once the
+ * slot goes out of scope the value is moved into the upvalue itself,
+ * in the same two lane form the VM stack uses.
+ */
+class Upvalue {
+
+    // stack slot while open, -1 once closed
+    int index;
+    Object closed;
+    double closedNumber;
+
+    // next open upvalue, ordered by decreasing stack slot
+    Upvalue next;
+
+    Upvalue(int index) {
+        this.index = index;
+    }
+
+}  //  end class Upvalue
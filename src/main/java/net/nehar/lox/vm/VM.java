@@ -0,0 +1,526 @@
+package net.nehar.lox.vm;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stack based virtual machine running code produced by the Compiler.
+ *
+ * Every stack slot has two lanes: stack[i] holds the value, or the NUMBER
+ * marker in which case numbers[i] holds the actual double. Globals and
+ * closed upvalues use the same layout, so numbers are never boxed unless
+ * they leave the VM (printing aside, only natives see boxed Doubles).
+ *
+ * The dispatch loop keeps the current frame's code, pools, ip and frame
+ * base in locals and only writes them back on calls and returns.
+ */
+public class VM {
+
+    private static final int FRAMES_MAX = 100_000;
+
+    // value lane marker for a slot whose number lives in the number lane
+    private static final Object NUMBER = new Object();
+
+    // marks a global slot that has been handed out but never defined
+    private static final Object UNDEFINED = new Object();
+
+    private static class Frame {
+        Closure closure;
+        int ip;
+        int base;
+    }  //  end class Frame
+
+    private Object[] stack = new Object[256];
+    private double[] numbers = new double[256];
+    private int sp = 0;
+
+    private Frame[] frames = new Frame[64];
+    private int frameCount = 0;
+
+    private Upvalue openUpvalues = null;
+
+    private Object[] globals = new Object[16];
+    private double[] globalNumbers = new double[16];
+    private String[] globalNames = new String[16];
+    private final Map<String, Integer> globalSlots = new HashMap<>();
+
+    public VM() {
+        Arrays.fill(globals, UNDEFINED);
+
+        // native clock function
+        defineNative("clock", 0,
+                arguments -> (double)System.currentTimeMillis() / 1000.0);
+    }
+
+    /**
+     * Run a compiled script.
+     *
+     * @throws VmError on a Lox runtime error, after resetting the VM
+     */
+    public void interpret(Function script) {
+        Closure closure = new Closure(script);
+        ensureStack(script.maxStack);
+        stack[sp++] = closure;
+        pushFrame(closure, 0);
+
+        try {
+            run();
+        } catch (VmError error) {
+            Arrays.fill(stack, null);
+            sp = 0;
+            frameCount = 0;
+            openUpvalues = null;
+            throw error;
+        }
+    }  //  end method interpret
+
+    /**
+     * Slot for a global name, reserving a new one if needed.
+     */
+    int globalSlot(String name) {
+        Integer slot = globalSlots.get(name);
+        if (slot != null) return slot;
+
+        slot = globalSlots.size();
+        if (slot == globals.length) {
+            int size = globals.length;
+            globals = Arrays.copyOf(globals, size * 2);
+            globalNumbers = Arrays.copyOf(globalNumbers, size * 2);
+            globalNames = Arrays.copyOf(globalNames, size * 2);
+            Arrays.fill(globals, size, globals.length, UNDEFINED);
+        }
+        globalSlots.put(name, slot);
+        globalNames[slot] = name;
+        return slot;
+    }  //  end method globalSlot
+
+    private void defineNative(String name, int arity, NativeFunction.Body body) {
+        globals[globalSlot(name)] = new NativeFunction(arity, body);
+    }  //  end method defineNative
+
+    private void run() {
+        Frame frame = frames[frameCount - 1];
+        Upvalue[] upvalues = frame.closure.upvalues;
+        Chunk chunk = frame.closure.function.chunk;
+        int[] code = chunk.code;
+        Object[] constants = chunk.constants;
+        double[] pool = chunk.numbers;
+        int ip = frame.ip;
+        int base = frame.base;
+
+        Object[] stack = this.stack;
+        double[] numbers = this.numbers;
+        Object[] globals = this.globals;
+        double[] globalNumbers = this.globalNumbers;
+        int sp = this.sp;
+
+        for (;;) {
+            switch (code[ip++]) {
+                case OpCode.CONSTANT -> stack[sp++] = constants[code[ip++]];
+                case OpCode.NUMBER -> {
+                    stack[sp] = NUMBER;
+                    numbers[sp++] = pool[code[ip++]];
+                }
+                case OpCode.NIL -> stack[sp++] = null;
+                case OpCode.TRUE -> stack[sp++] = Boolean.TRUE;
+                case OpCode.FALSE -> stack[sp++] = Boolean.FALSE;
+                case OpCode.POP -> sp--;
+
+                case OpCode.GET_LOCAL -> {
+                    int slot = base + code[ip++];
+                    stack[sp] = stack[slot];
+                    numbers[sp++] = numbers[slot];
+                }
+                case OpCode.SET_LOCAL -> {
+                    int slot = base + code[ip++];
+                    stack[slot] = stack[sp - 1];
+                    numbers[slot] = numbers[sp - 1];
+                }
+                case OpCode.SET_LOCAL_POP -> {
+                    int slot = base + code[ip++];
+                    sp--;
+                    stack[slot] = stack[sp];
+                    numbers[slot] = numbers[sp];
+                }
+                case OpCode.GET_GLOBAL -> {
+                    int slot = code[ip++];
+                    Object value = globals[slot];
+                    if (value == UNDEFINED)
+                        throw error(chunk, ip,
+                                "Undefined variable " + globalNames[slot] + ".");
+                    stack[sp] = value;
+                    numbers[sp++] = globalNumbers[slot];
+                }
+                case OpCode.DEFINE_GLOBAL -> {
+                    int slot = code[ip++];
+                    sp--;
+                    globals[slot] = stack[sp];
+                    globalNumbers[slot] = numbers[sp];
+                }
+                case OpCode.SET_GLOBAL -> {
+                    int slot = code[ip++];
+                    if (globals[slot] == UNDEFINED)
+                        throw error(chunk, ip,
+                                "Undefined variable " + globalNames[slot] + ".");
+                    globals[slot] = stack[sp - 1];
+                    globalNumbers[slot] = numbers[sp - 1];
+                }
+                case OpCode.SET_GLOBAL_POP -> {
+                    int slot = code[ip++];
+                    if (globals[slot] == UNDEFINED)
+                        throw error(chunk, ip,
+                                "Undefined variable " + globalNames[slot] + ".");
+                    sp--;
+                    globals[slot] = stack[sp];
+                    globalNumbers[slot] = numbers[sp];
+                }
+                case OpCode.GET_UPVALUE -> {
+                    Upvalue upvalue = upvalues[code[ip++]];
+                    if (upvalue.index >= 0) {
+                        stack[sp] = stack[upvalue.index];
+                        numbers[sp++] = numbers[upvalue.index];
+                    } else {
+                        stack[sp] = upvalue.closed;
+                        numbers[sp++] = upvalue.closedNumber;
+                    }
+                }
+                case OpCode.SET_UPVALUE -> {
+                    Upvalue upvalue = upvalues[code[ip++]];
+                    if (upvalue.index >= 0) {
+                        stack[upvalue.index] = stack[sp - 1];
+                        numbers[upvalue.index] = numbers[sp - 1];
+                    } else {
+                        upvalue.closed = stack[sp - 1];
+                        upvalue.closedNumber = numbers[sp - 1];
+                    }
+                }
+                case OpCode.SET_UPVALUE_POP -> {
+                    Upvalue upvalue = upvalues[code[ip++]];
+                    sp--;
+                    if (upvalue.index >= 0) {
+                        stack[upvalue.index] = stack[sp];
+                        numbers[upvalue.index] = numbers[sp];
+                    } else {
+                        upvalue.closed = stack[sp];
+                        upvalue.closedNumber = numbers[sp];
+                    }
+                }
+
+                case OpCode.EQUAL -> {
+                    sp--;
+                    stack[sp - 1] = isEqual(stack, numbers, sp - 1, sp);
+                }
+                case OpCode.NOT_EQUAL -> {
+                    sp--;
+                    stack[sp - 1] = !isEqual(stack, numbers, sp - 1, sp);
+                }
+                case OpCode.GREATER -> {
+                    sp--;
+                    if (stack[sp - 1] != NUMBER || stack[sp] != NUMBER)
+                        throw error(chunk, ip, "Operand must be numbers.");
+                    stack[sp - 1] = numbers[sp - 1] > numbers[sp];
+                }
+                case OpCode.GREATER_EQUAL -> {
+                    sp--;
+                    if (stack[sp - 1] != NUMBER || stack[sp] != NUMBER)
+                        throw error(chunk, ip, "Operand must be numbers.");
+                    stack[sp - 1] = numbers[sp - 1] >= numbers[sp];
+                }
+                case OpCode.LESS -> {
+                    sp--;
+                    if (stack[sp - 1] != NUMBER || stack[sp] != NUMBER)
+                        throw error(chunk, ip, "Operand must be numbers.");
+                    stack[sp - 1] = numbers[sp - 1] < numbers[sp];
+                }
+                case OpCode.LESS_EQUAL -> {
+                    sp--;
+                    if (stack[sp - 1] != NUMBER || stack[sp] != NUMBER)
+                        throw error(chunk, ip, "Operand must be numbers.");
+                    stack[sp - 1] = numbers[sp - 1] <= numbers[sp];
+                }
+                case OpCode.ADD -> {
+                    sp--;
+                    Object a = stack[sp - 1];
+                    Object b = stack[sp];
+                    if (a == NUMBER && b == NUMBER)
+                        numbers[sp - 1] += numbers[sp];
+                    else if (a instanceof String && b instanceof String)
+                        stack[sp - 1] = (String) a + (String) b;
+                    else
+                        throw error(chunk, ip, "Operands must be two numbers or strings.");
+                }
+                case OpCode.SUBTRACT -> {
+                    sp--;
+                    if (stack[sp - 1] != NUMBER || stack[sp] != NUMBER)
+                        throw error(chunk, ip, "Operand must be numbers.");
+                    numbers[sp - 1] -= numbers[sp];
+                }
+                case OpCode.MULTIPLY -> {
+                    sp--;
+                    if (stack[sp - 1] != NUMBER || stack[sp] != NUMBER)
+                        throw error(chunk, ip, "Operand must be numbers.");
+                    numbers[sp - 1] *= numbers[sp];
+                }
+                case OpCode.DIVIDE -> {
+                    sp--;
+                    if (stack[sp - 1] != NUMBER || stack[sp] != NUMBER)
+                        throw error(chunk, ip, "Operand must be numbers.");
+                    numbers[sp - 1] /= numbers[sp];
+                }
+                case OpCode.ADD_NUMBER -> {
+                    Object a = stack[sp - 1];
+                    if (a != NUMBER)
+                        throw error(chunk, ip, "Operands must be two numbers or strings.");
+                    numbers[sp - 1] += pool[code[ip++]];
+                }
+                case OpCode.SUBTRACT_NUMBER -> {
+                    if (stack[sp - 1] != NUMBER)
+                        throw error(chunk, ip, "Operand must be numbers.");
+                    numbers[sp - 1] -= pool[code[ip++]];
+                }
+                case OpCode.LESS_NUMBER -> {
+                    if (stack[sp - 1] != NUMBER)
+                        throw error(chunk, ip, "Operand must be numbers.");
+                    stack[sp - 1] = numbers[sp - 1] < pool[code[ip++]];
+                }
+                case OpCode.NOT -> stack[sp - 1] = !isTruthy(stack[sp - 1]);
+                case OpCode.NEGATE -> {
+                    if (stack[sp - 1] != NUMBER)
+                        throw error(chunk, ip, "Operand must be a number.");
+                    numbers[sp - 1] = -numbers[sp - 1];
+                }
+
+                case OpCode.PRINT -> {
+                    sp--;
+                    System.out.println(stringify(value(stack, numbers, sp)));
+                }
+                case OpCode.JUMP -> ip = code[ip];
+                case OpCode.JUMP_IF_FALSE -> {
+                    if (isTruthy(stack[sp - 1])) ip++;
+                    else ip = code[ip];
+                }
+                case OpCode.POP_JUMP_IF_FALSE -> {
+                    if (isTruthy(stack[--sp])) ip++;
+                    else ip = code[ip];
+                }
+                case OpCode.LOOP -> ip = code[ip];
+
+                case OpCode.CALL, OpCode.TAIL_CALL -> {
+                    boolean tail = code[ip - 1] == OpCode.TAIL_CALL;
+                    int argCount = code[ip++];
+                    Object callee = stack[sp - 1 - argCount];
+
+                    if (callee instanceof Closure closure) {
+                        Function function = closure.function;
+                        if (argCount != function.arity)
+                            throw error(chunk, ip, "Expected " + function.arity +
+                                    "arguments, got " + argCount + " instead.");
+
+                        if (tail) {
+                            // slide callee and arguments down over the
+                            // returning function's slots and take its frame
+                            closeUpvalues(base);
+                            int from = sp - argCount - 1;
+                            System.arraycopy(stack, from, stack, base, argCount + 1);
+                            System.arraycopy(numbers, from, numbers, base, argCount + 1);
+                            Arrays.fill(stack, base + argCount + 1, sp, null);
+                            sp = base + argCount + 1;
+                            frame.closure = closure;
+                        } else {
+                            if (frameCount == FRAMES_MAX)
+                                throw error(chunk, ip, "Stack overflow.");
+
+                            frame.ip = ip;
+                            base = sp - argCount - 1;
+                            frame = pushFrame(closure, base);
+                        }
+
+                        if (base + function.maxStack > stack.length) {
+                            ensureStack(base + function.maxStack);
+                            stack = this.stack;
+                            numbers = this.numbers;
+                        }
+
+                        upvalues = closure.upvalues;
+                        chunk = function.chunk;
+                        code = chunk.code;
+                        constants = chunk.constants;
+                        pool = chunk.numbers;
+                        ip = 0;
+                    } else if (callee instanceof NativeFunction function) {
+                        if (argCount != function.arity)
+                            throw error(chunk, ip, "Expected " + function.arity +
+                                    "arguments, got " + argCount + " instead.");
+
+                        Object[] arguments = new Object[argCount];
+                        for (int i = 0; i < argCount; i++) {
+                            arguments[i] = value(stack, numbers, sp - argCount + i);
+                        }
+                        sp -= argCount + 1;
+                        push(stack, numbers, sp++, function.body.call(arguments));
+                    } else {
+                        throw error(chunk, ip, "Can only call functions and classes.");
+                    }
+                }
+                case OpCode.CLOSURE -> {
+                    Function function = (Function) constants[code[ip++]];
+                    Closure closure = new Closure(function);
+                    for (int i = 0; i < closure.upvalues.length; i++) {
+                        int isLocal = code[ip++];
+                        int index = code[ip++];
+                        closure.upvalues[i] = isLocal == 1
+                                ? captureUpvalue(base + index)
+                                : upvalues[index];
+                    }
+                    stack[sp++] = closure;
+                }
+                case OpCode.CLOSE_UPVALUE -> {
+                    closeUpvalues(sp - 1);
+                    sp--;
+                }
+                case OpCode.RETURN -> {
+                    sp--;
+                    Object result = stack[sp];
+                    double resultNumber = numbers[sp];
+                    closeUpvalues(base);
+                    frameCount--;
+
+                    if (frameCount == 0) {
+                        // drop the script closure
+                        stack[0] = null;
+                        this.sp = 0;
+                        return;
+                    }
+
+                    // clear the dead slots so they can be collected
+                    Arrays.fill(stack, base, sp, null);
+                    sp = base;
+                    stack[sp] = result;
+                    numbers[sp++] = resultNumber;
+
+                    frame = frames[frameCount - 1];
+                    upvalues = frame.closure.upvalues;
+                    chunk = frame.closure.function.chunk;
+                    code = chunk.code;
+                    constants = chunk.constants;
+                    pool = chunk.numbers;
+                    ip = frame.ip;
+                    base = frame.base;
+                }
+                default -> throw new IllegalStateException(
+                        "Unknown opcode " + code[ip - 1]);
+            }
+        }
+    }  //  end method run
+
+    private Frame pushFrame(Closure closure, int base) {
+        if (frameCount == frames.length)
+            frames = Arrays.copyOf(frames, frameCount * 2);
+
+        Frame frame = frames[frameCount];
+        if (frame == null) {
+            frame = new Frame();
+            frames[frameCount] = frame;
+        }
+        frameCount++;
+
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = base;
+        return frame;
+    }  //  end method pushFrame
+
+    private void ensureStack(int size) {
+        if (size <= stack.length) return;
+        int length = Math.max(size, stack.length * 2);
+        stack = Arrays.copyOf(stack, length);
+        numbers = Arrays.copyOf(numbers, length);
+    }  //  end method ensureStack
+
+    private Upvalue captureUpvalue(int index) {
+        Upvalue previous = null;
+        Upvalue upvalue = openUpvalues;
+        while (upvalue != null && upvalue.index > index) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+
+        if (upvalue != null && upvalue.index == index) return upvalue;
+
+        Upvalue created = new Upvalue(index);
+        created.next = upvalue;
+        if (previous == null) openUpvalues = created;
+        else previous.next = created;
+        return created;
+    }  //  end method captureUpvalue
+
+    private void closeUpvalues(int last) {
+        while (openUpvalues != null && openUpvalues.index >= last) {
+            Upvalue upvalue = openUpvalues;
+            upvalue.closed = stack[upvalue.index];
+            upvalue.closedNumber = numbers[upvalue.index];
+            upvalue.index = -1;
+            openUpvalues = upvalue.next;
+        }
+    }  //  end method closeUpvalues
+
+    private VmError error(Chunk chunk, int ip, String message) {
+        return new VmError(message, chunk.line(ip - 1));
+    }  //  end method error
+
+    /**
+     * Box the value in a slot, for code outside the VM.
+     */
+    private static Object value(Object[] stack, double[] numbers, int slot) {
+        Object value = stack[slot];
+        return value == NUMBER ? (Object) numbers[slot] : value;
+    }  //  end method value
+
+    /**
+     * Store a value from outside the VM into a slot, unboxing numbers.
+     */
+    private static void push(Object[] stack, double[] numbers, int slot, Object value) {
+        if (value instanceof Double) {
+            stack[slot] = NUMBER;
+            numbers[slot] = (double) value;
+        } else {
+            stack[slot] = value;
+        }
+    }  //  end method push
+
+    private static boolean isTruthy(Object object) {
+        if (object == null) return false;
+        if (object instanceof Boolean) return (boolean) object;
+        return true;
+    }  //  end method isTruthy
+
+    private static boolean isEqual(Object[] stack, double[] numbers, int a, int b) {
+        if (stack[a] == NUMBER && stack[b] == NUMBER) {
+            // same as Double.equals, so NaN == NaN and 0 != -0
+            return Double.doubleToLongBits(numbers[a]) ==
+                    Double.doubleToLongBits(numbers[b]);
+        }
+
+        Object left = stack[a];
+        if (left == null && stack[b] == null) return true;
+        if (left == null) return false;
+        return left.equals(stack[b]);
+    }  //  end method isEqual
+
+    private static String stringify(Object object) {
+        if (object == null) return "nil";
+
+        if (object instanceof Double) {
+            String text = object.toString();
+
+            if(text.endsWith(".0"))
+                text = text.substring(0, text.length() - 2);
+
+            return text;
+        }
+
+        return object.toString();
+    }  //  end method stringify
+
+}  //  end class VM
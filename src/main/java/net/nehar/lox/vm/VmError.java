@@ -0,0 +1,15 @@
+package net.nehar.lox.vm;
+
+/**
+ * Runtime error raised by the VM, carrying the source line it happened on.
+ */
+public class VmError extends RuntimeException {
+
+    public final int line;
+
+    VmError(String message, int line) {
+        super(message);
+        this.line = line;
+    }
+
+}  //  end class VmError
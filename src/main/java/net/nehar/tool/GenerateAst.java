@@ -18,25 +18,25 @@ public class GenerateAst {
 
         String outputDir = args[0];
         defineAst(outputDir, className, Arrays.asList(
-                "Assign: Token name, Expr value",
-                "Binary: Expr left, Token operator, Expr right",
-                "Call: Expr callee, Token paren, List<Expr> arguments",
+                "Assign: Token name, Expr value | int depth = -1, int slot",
+                "Binary: Expr left, Token operator, Expr right | int specialization",
+                "Call: Expr callee, Token paren, List<Expr> arguments | Object target",
                 "Grouping: Expr expression",
                 "Literal: Object value",
                 "Logical: Expr left, Token operator, Expr right",
-                "Unary: Token operator, Expr right",
-                "Variable: Token name"
+                "Unary: Token operator, Expr right | int specialization",
+                "Variable: Token name | int depth = -1, int slot"
         ));
 
         defineAst(outputDir, "Stmt", Arrays.asList(
-                "Block: List<Stmt> statements",
+                "Block: List<Stmt> statements | int slots, boolean scoped",
                 "Expression: Expr expression",
-                "Function: Token name, List<Token> params, List<Stmt> body",
+                "Function: Token name, List<Token> params, List<Stmt> body | int slot, int slots, boolean leaf, int calls, Jit.Node compiled",
                 "If: Expr condition, Stmt thenBranch, Stmt elseBranch",
                 "Print: Expr expression",
                 "Return: Token keyword, Expr value",
-                "Var: Token name, Expr initializer",
-                "While: Expr condition, Stmt body"
+                "Var: Token name, Expr initializer | int slot",
+                "While: Token keyword, Expr condition, Stmt body | Expr.Variable counter"
                 ));
     }  //  end main
 
@@ -51,18 +51,25 @@ public class GenerateAst {
         writer.println();
         writer.println("import java.util.List;");
         writer.println();
-        writer.println("abstract class " + baseName + " {");
+        writer.println("public abstract class " + baseName + " {");
 
         defineVisitor(writer, baseName, types);
 
         for (String type: types) {
             String className = type.split(":")[0].trim();
             String fields = type.split(":")[1].trim();
-            defineType(writer, baseName, className, fields);
+
+            // anything after a '|' is mutable state filled in by later passes
+            String state = null;
+            if (fields.contains("|")) {
+                state = fields.split("\\|")[1].trim();
+                fields = fields.split("\\|")[0].trim();
+            }
+            defineType(writer, baseName, className, fields, state);
         }
 
         writer.println();
-        writer.println("    abstract <R> R accept(Visitor<R> visitor);");
+        writer.println("    public abstract <R> R accept(Visitor<R> visitor);");
         writer.println("\n}  //  end abstract class " + baseName);
         writer.close();
     }  //  end defineAst
@@ -70,7 +77,7 @@ public class GenerateAst {
     private static void defineVisitor(PrintWriter writer,
                                       String baseName,
                                       List<String> types) {
-        writer.println("    interface Visitor<R> {");
+        writer.println("    public interface Visitor<R> {");
 
         for (String type: types) {
             String typeName = type.split(":")[0].trim();
@@ -84,10 +91,11 @@ public class GenerateAst {
     private static void defineType(PrintWriter writer,
                                    String baseName,
                                    String className,
-                                   String fieldList) {
+                                   String fieldList,
+                                   String stateList) {
 
         //  class header
-        writer.println("\n    static class " + className + " extends " + baseName + " {");
+        writer.println("\n    public static class " + className + " extends " + baseName + " {");
 
         // constructor
         writer.println("        " + className + "(" + fieldList + ") {");
@@ -104,7 +112,7 @@ public class GenerateAst {
         // Visitor
         writer.println();
         writer.println("        @Override");
-        writer.println("        <R> R accept(Visitor<R> visitor) {");
+        writer.println("        public <R> R accept(Visitor<R> visitor) {");
         writer.println("            return visitor.visit" +
                 className + baseName + "(this);");
         writer.println("        }");
@@ -112,7 +120,14 @@ public class GenerateAst {
         // fields
         writer.println();
         for (String field: fields) {
-            writer.println("        final " + field + ";");
+            writer.println("        public final " + field + ";");
+        }
+
+        // non-final state, not part of the constructor
+        if (stateList != null) {
+            for (String field: stateList.split(", ")) {
+                writer.println("        " + field + ";");
+            }
         }
 
         writer.println("    }  //  end class " + className);
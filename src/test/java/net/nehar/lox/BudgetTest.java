@@ -0,0 +1,73 @@
+package net.nehar.lox;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * A budget stops a run that is waiting in a native, not only one that is
+ * taking steps.
+ */
+class BudgetTest {
+
+    private static final String RECEIVE = "var c = channel(); receive(c);";
+
+    private static final String JOIN =
+            "fun wait() { receive(channel()); }\n" +
+            "join(spawn(wait));";
+
+    // far longer than any budget below takes to stop a run
+    private static final Duration LIMIT = Duration.ofSeconds(5);
+
+    @Test
+    void deadlineStopsReceive() {
+        assertStops(RECEIVE, new Budget(Long.MAX_VALUE, Duration.ofMillis(300)),
+                "Execution deadline exceeded.");
+    }
+
+    @Test
+    void cancelStopsReceive() {
+        assertStops(RECEIVE, cancelledSoon(), "Execution cancelled.");
+    }
+
+    @Test
+    void deadlineStopsJoin() {
+        assertStops(JOIN, new Budget(Long.MAX_VALUE, Duration.ofMillis(300)),
+                "Execution deadline exceeded.");
+    }
+
+    @Test
+    void cancelStopsJoin() {
+        assertStops(JOIN, cancelledSoon(), "Execution cancelled.");
+    }
+
+    private static Budget cancelledSoon() {
+        Budget budget = new Budget(Long.MAX_VALUE, null);
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        timer.schedule(budget::cancel, 300, TimeUnit.MILLISECONDS);
+        timer.shutdown();
+        return budget;
+    }
+
+    private static void assertStops(String source, Budget budget, String message) {
+        CompiledScript script = new LoxEngine().compile(source);
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        ErrorReporter reporter = new ErrorReporter(new PrintStream(errors, true));
+
+        boolean ok = assertTimeoutPreemptively(LIMIT, () ->
+                script.execute(new PrintStream(new ByteArrayOutputStream()), reporter, budget));
+
+        assertFalse(ok);
+        assertTrue(errors.toString().contains(message), errors.toString());
+    }
+
+}  //  end class BudgetTest